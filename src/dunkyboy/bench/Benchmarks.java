@@ -0,0 +1,30 @@
+package dunkyboy.bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * Entry point for all of the project's JMH benchmarks, and the main class of the {@code target/benchmarks.jar} that
+ * {@code mvn package} builds. E.g.
+ *
+ * <pre>
+ *   java -jar target/benchmarks.jar 'crypto|util' -f 2 -wi 5 -i 10 -rff crypto.json
+ * </pre>
+ *
+ * Takes JMH's own command line ({@code -h} lists it); results are written as JSON unless {@code -rf} says otherwise.
+ * Each package has its own benchmarks class next to the code it measures (e.g.
+ * {@link dunkyboy.crypto.CryptoBenchmarks}), which also sets that package's default forks and iterations.
+ */
+public class Benchmarks {
+
+    public static void main(String[] args) throws Exception {
+        final List<String> jmhArgs = new ArrayList<>(Arrays.asList(args));
+        if (!jmhArgs.contains("-rf")) {
+            jmhArgs.add("-rf");
+            jmhArgs.add("json");
+        }
+        org.openjdk.jmh.Main.main(jmhArgs.toArray(new String[0]));
+    }
+}
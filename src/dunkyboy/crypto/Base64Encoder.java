@@ -0,0 +1,88 @@
+package dunkyboy.crypto;
+
+import java.nio.BufferOverflowException;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * Standard (RFC 4648) Base64 encoding, with padding and no line breaks - the same output as commons-codec's
+ * {@code Base64.encodeBase64String} for anything under its 76-char line length - into a caller's buffer, so encoding
+ * allocates nothing.
+ */
+public final class Base64Encoder {
+
+    private static final byte[] ALPHABET =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes(StandardCharsets.US_ASCII);
+
+    private Base64Encoder() {
+    }
+
+    /**
+     * @return how many bytes (or chars) encoding {@code length} bytes produces
+     */
+    public static int encodedLength(int length) {
+        return (length + 2) / 3 * 4;
+    }
+
+    /**
+     * Encodes {@code src[srcOffset, srcOffset + length)} into {@code dst} at {@code dstOffset}, as ASCII.
+     *
+     * @return how many bytes were written, i.e. {@link #encodedLength}(length)
+     */
+    public static int encode(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset) {
+        final int encodedLength = encodedLength(length);
+        if (srcOffset < 0 || length < 0 || srcOffset + length > src.length
+                || dstOffset < 0 || dstOffset + encodedLength > dst.length)
+            throw new IndexOutOfBoundsException("encoding " + length + " bytes from " + srcOffset + " of " +
+                src.length + " into " + dstOffset + " of " + dst.length);
+
+        int s = srcOffset;
+        int d = dstOffset;
+        final int wholeGroupsEnd = srcOffset + length / 3 * 3;
+        while (s < wholeGroupsEnd) {
+            final int bits = (src[s++] & 0xff) << 16 | (src[s++] & 0xff) << 8 | (src[s++] & 0xff);
+            dst[d++] = ALPHABET[bits >>> 18];
+            dst[d++] = ALPHABET[(bits >>> 12) & 0x3f];
+            dst[d++] = ALPHABET[(bits >>> 6) & 0x3f];
+            dst[d++] = ALPHABET[bits & 0x3f];
+        }
+
+        final int remaining = srcOffset + length - s;
+        if (remaining > 0) {
+            final int bits = (src[s] & 0xff) << 16 | (remaining == 2 ? (src[s + 1] & 0xff) << 8 : 0);
+            dst[d++] = ALPHABET[bits >>> 18];
+            dst[d++] = ALPHABET[(bits >>> 12) & 0x3f];
+            dst[d++] = remaining == 2 ? ALPHABET[(bits >>> 6) & 0x3f] : (byte) '=';
+            dst[d++] = '=';
+        }
+        return d - dstOffset;
+    }
+
+    /**
+     * Encodes {@code src[srcOffset, srcOffset + length)} at {@code dst}'s position, advancing it.
+     *
+     * @return how many chars were written
+     */
+    public static int encode(byte[] src, int srcOffset, int length, CharBuffer dst) {
+        final int encodedLength = encodedLength(length);
+        if (srcOffset < 0 || length < 0 || srcOffset + length > src.length)
+            throw new IndexOutOfBoundsException("encoding " + length + " bytes from " + srcOffset + " of " +
+                src.length);
+        if (dst.remaining() < encodedLength)
+            throw new BufferOverflowException();
+
+        final int end = srcOffset + length;
+        for (int s = srcOffset; s < end; s += 3) {
+            final int remaining = end - s;
+            final int bits = (src[s] & 0xff) << 16
+                | (remaining > 1 ? (src[s + 1] & 0xff) << 8 : 0)
+                | (remaining > 2 ? src[s + 2] & 0xff : 0);
+            dst.put((char) ALPHABET[bits >>> 18]);
+            dst.put((char) ALPHABET[(bits >>> 12) & 0x3f]);
+            dst.put(remaining > 1 ? (char) ALPHABET[(bits >>> 6) & 0x3f] : '=');
+            dst.put(remaining > 2 ? (char) ALPHABET[bits & 0x3f] : '=');
+        }
+        return encodedLength;
+    }
+}
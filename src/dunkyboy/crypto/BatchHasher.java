@@ -0,0 +1,315 @@
+package dunkyboy.crypto;
+
+import javax.crypto.SecretKeyFactory;
+import java.io.PrintStream;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Bulk {@link KeyFactoryBenchmark#generateHash} over a stream of records (e.g. re-deriving every credential for an
+ * iteration-count migration), fanned out across a work-stealing pool.
+ *
+ * At most maxInFlight records are being hashed or waiting to be delivered at once: the calling thread blocks pulling
+ * more from the input until earlier results have gone to the sink, so memory stays flat however long the input is.
+ * Results go to the sink one at a time (it needn't be thread-safe), tagged with their input index, and either in
+ * input order or in completion order. Progress (records/sec and, for a known total, an ETA) is reported from the
+ * calling thread as it goes.
+ */
+public final class BatchHasher {
+
+    public static final class Record {
+        final String password;
+        final byte[] salt;
+        final String algorithm;
+        final int iterations;
+        final int keyLength;
+
+        public Record(String password, byte[] salt, String algorithm, int iterations, int keyLength) {
+            this.password = password;
+            this.salt = salt;
+            this.algorithm = algorithm;
+            this.iterations = iterations;
+            this.keyLength = keyLength;
+        }
+    }
+
+    @FunctionalInterface
+    public interface ResultSink {
+        void accept(long index, Record record, byte[] hash) throws Exception;
+    }
+
+    @FunctionalInterface
+    public interface ProgressListener {
+        /**
+         * @param totalRecords the expected total, or -1 if unknown
+         * @param etaNanos estimated time left, or -1 if the total is unknown or nothing's finished yet
+         */
+        void progress(long doneRecords, long totalRecords, double recordsPerSec, long etaNanos);
+    }
+
+    private final ForkJoinPool pool;
+    private final int maxInFlight;
+    private final boolean ordered;
+    private final long progressIntervalNanos;
+    private final ProgressListener progressListener;
+
+    private final ThreadLocal<Map<String, SecretKeyFactory>> factories = ThreadLocal.withInitial(HashMap::new);
+
+    /**
+     * @param ordered true to deliver results in input order, false to deliver them as they complete
+     */
+    public BatchHasher(ForkJoinPool pool, int maxInFlight, boolean ordered,
+                       long progressInterval, TimeUnit progressUnit, ProgressListener progressListener) {
+        if (maxInFlight < 1)
+            throw new IllegalArgumentException("max in flight must be positive: " + maxInFlight);
+
+        this.pool = pool;
+        this.maxInFlight = maxInFlight;
+        this.ordered = ordered;
+        this.progressIntervalNanos = progressUnit.toNanos(progressInterval);
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * A progress listener that prints a line per report.
+     */
+    public static ProgressListener printingTo(PrintStream out) {
+        return (done, total, recordsPerSec, etaNanos) -> {
+            if (total < 0) {
+                out.println(String.format("%,d records, %,.1f records/sec", done, recordsPerSec));
+            } else if (etaNanos < 0) {
+                out.println(String.format("%,d / %,d records", done, total));
+            } else {
+                final long etaSecs = TimeUnit.NANOSECONDS.toSeconds(etaNanos);
+                out.println(String.format("%,d / %,d records (%.1f%%), %,.1f records/sec, ETA %d:%02d:%02d",
+                    done, total, total == 0 ? 100.0 : 100.0 * done / total, recordsPerSec,
+                    etaSecs / 3600, etaSecs / 60 % 60, etaSecs % 60));
+            }
+        };
+    }
+
+    /**
+     * Hashes every record, blocking until all the results have been delivered.
+     *
+     * @param totalRecords how many records to expect, for the ETA, or -1 if unknown
+     * @return how many records were hashed
+     * @throws Exception the first failure from hashing or the sink, after which no more records are started (an
+     *                   Error is rethrown as is)
+     */
+    public long hashAll(Iterator<Record> records, long totalRecords, ResultSink sink) throws Exception {
+        return new Batch(sink, totalRecords).run(records);
+    }
+
+    /**
+     * One hashAll call's state. Results are delivered under the batch's lock, which also guards the reorder buffer.
+     */
+    private final class Batch {
+        private final ResultSink sink;
+        private final long totalRecords;
+        private final Semaphore permits = new Semaphore(maxInFlight);
+
+        // reorder buffer: while index i is in flight nothing at or beyond i + maxInFlight can be, so slots never clash
+        private final Record[] pendingRecords = new Record[maxInFlight];
+        private final byte[][] pendingHashes = new byte[maxInFlight][];
+        private long nextToDeliver = 0;
+
+        private long delivered = 0;           // guarded by this
+        private volatile Throwable failure = null;
+
+        Batch(ResultSink sink, long totalRecords) {
+            this.sink = sink;
+            this.totalRecords = totalRecords;
+        }
+
+        long run(Iterator<Record> records) throws Exception {
+            final long startNanos = System.nanoTime();
+            long nextReportNanos = startNanos + progressIntervalNanos;
+
+            long submitted = 0;
+            while (failure == null && records.hasNext()) {
+                while (!permits.tryAcquire(Math.max(0, nextReportNanos - System.nanoTime()), TimeUnit.NANOSECONDS))
+                    nextReportNanos = report(startNanos);
+                if (System.nanoTime() - nextReportNanos >= 0)
+                    nextReportNanos = report(startNanos);
+
+                final long index = submitted++;
+                final Record record = records.next();
+                pool.execute(() -> hash(index, record));
+            }
+
+            // wait for everything in flight to be delivered
+            while (!permits.tryAcquire(maxInFlight, Math.max(0, nextReportNanos - System.nanoTime()), TimeUnit.NANOSECONDS))
+                nextReportNanos = report(startNanos);
+            report(startNanos);
+
+            if (failure instanceof Error)
+                throw (Error) failure;
+            if (failure instanceof Exception)
+                throw (Exception) failure;
+            if (failure != null)
+                throw new IllegalStateException(failure);
+            return submitted;
+        }
+
+        private long report(long startNanos) {
+            final long nowNanos = System.nanoTime();
+            final long done;
+            synchronized (this) {
+                done = delivered;
+            }
+
+            final double recordsPerSec = done / ((nowNanos - startNanos) / 1_000_000_000.0);
+            final long etaNanos = totalRecords < 0 ? -1
+                : done == 0 ? -1
+                : (long) (Math.max(0, totalRecords - done) / recordsPerSec * 1_000_000_000.0);
+
+            if (progressListener != null)
+                progressListener.progress(done, totalRecords, recordsPerSec, etaNanos);
+            return nowNanos + progressIntervalNanos;
+        }
+
+        private void hash(long index, Record record) {
+            byte[] hash = null;
+            try {
+                if (failure == null)
+                    hash = KeyFactoryBenchmark.generateHash(factory(record.algorithm), record.password, record.salt,
+                        record.iterations, record.keyLength);
+            } catch (final Throwable e) {
+                fail(e);  // Errors too: the record still has to complete, or its permit never comes back
+            } finally {
+                complete(index, record, hash);
+            }
+        }
+
+        private synchronized void complete(long index, Record record, byte[] hash) {
+            if (!ordered) {
+                deliver(index, record, hash);
+                return;
+            }
+
+            final int slot = (int) (index % maxInFlight);
+            pendingRecords[slot] = record;
+            pendingHashes[slot] = hash;
+
+            for (int next; pendingRecords[next = (int) (nextToDeliver % maxInFlight)] != null; nextToDeliver++) {
+                final Record nextRecord = pendingRecords[next];
+                final byte[] nextHash = pendingHashes[next];
+                pendingRecords[next] = null;
+                pendingHashes[next] = null;
+                deliver(nextToDeliver, nextRecord, nextHash);
+            }
+        }
+
+        // called holding this
+        private void deliver(long index, Record record, byte[] hash) {
+            try {
+                if (hash != null && failure == null) {
+                    sink.accept(index, record, hash);
+                    delivered++;
+                }
+            } catch (final Throwable e) {
+                fail(e);
+            } finally {
+                permits.release();
+            }
+        }
+
+        private synchronized void fail(Throwable e) {
+            if (failure == null)
+                failure = e;
+        }
+    }
+
+    private SecretKeyFactory factory(String algorithm) throws NoSuchAlgorithmException {
+        final Map<String, SecretKeyFactory> threadFactories = factories.get();
+        SecretKeyFactory factory = threadFactories.get(algorithm);
+        if (factory == null) {
+            factory = SecretKeyFactory.getInstance(algorithm);
+            threadFactories.put(algorithm, factory);
+        }
+        return factory;
+    }
+
+    /**
+     * Re-derives a synthetic credential set and reports the throughput.
+     */
+    public static void main(String[] args) throws Exception {
+
+        final String keyAlgo;
+        final int numHashAlgoIterations;
+        final long numRecords;
+        final int threads;
+        final boolean ordered;
+        try {
+            keyAlgo               = args[0];  // e.g. "PBKDF2WithHmacSHA512"
+            numHashAlgoIterations = Integer.parseInt(args[1]);  // e.g. 10_000
+            numRecords            = Long.parseLong(args[2]);  // e.g. 1_000_000
+
+            threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+            ordered = args.length <= 4 || args[4].equals("ordered");
+
+        } catch (final Exception e) {
+            System.out.println("Expected args: keyAlgo (String), numHashAlgoIterations (int), numRecords (long), " +
+                "[threads (int)], [ordered|tagged]");
+            System.exit(1);
+            return;
+        }
+
+        System.out.println("Starting batch at " + new Date() + ":");
+        System.out.println("  key algo:        " + keyAlgo);
+        System.out.println("  algo iterations: " + numHashAlgoIterations);
+        System.out.println("  records:         " + numRecords);
+        System.out.println("  threads:         " + threads);
+        System.out.println("  delivery:        " + (ordered ? "ordered" : "tagged"));
+
+        final SecureRandom random = new SecureRandom();
+        final Iterator<Record> records = new Iterator<Record>() {
+            private long generated = 0;
+
+            @Override
+            public boolean hasNext() {
+                return generated < numRecords;
+            }
+
+            @Override
+            public Record next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                generated++;
+
+                final byte[] salt = new byte[16];
+                random.nextBytes(salt);
+                return new Record(String.format("%032x", random.nextLong() & Long.MAX_VALUE), salt, keyAlgo,
+                    numHashAlgoIterations, 160);
+            }
+        };
+
+        final ForkJoinPool pool = new ForkJoinPool(threads, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+        final BatchHasher hasher = new BatchHasher(pool, 4 * threads, ordered, 1, TimeUnit.SECONDS,
+            printingTo(System.out));
+
+        final long[] checksum = { 0 };
+        final long[] expectedIndex = { 0 };
+        final long startNanos = System.nanoTime();
+        final long hashed = hasher.hashAll(records, numRecords, (index, record, hash) -> {
+            if (ordered && index != expectedIndex[0]++)
+                throw new IllegalStateException("result " + index + " delivered out of order");
+            checksum[0] += hash[0];
+        });
+        final long elapsedNanos = System.nanoTime() - startNanos;
+        pool.shutdown();
+
+        System.out.println(String.format("hashed %,d records in %.1f secs: %,.1f records/sec", hashed,
+            elapsedNanos / 1_000_000_000.0, hashed / (elapsedNanos / 1_000_000_000.0)));
+        System.out.println("  (hash checksum for compiler's benefit: " + checksum[0] + ")");
+    }
+}
@@ -0,0 +1,309 @@
+package dunkyboy.crypto;
+
+import dunkyboy.util.JsonWriter;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.util.Statistics;
+
+import javax.crypto.SecretKeyFactory;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.SecureRandom;
+import java.security.Security;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+
+/**
+ * {@link KeyFactoryBenchmark}'s hash generation over every installed provider that implements PBKDF2 with HMAC-SHA1,
+ * SHA256 or SHA512, and over a list of key lengths and iteration counts: {@link #main} runs this class's JMH benchmark
+ * with one {@code providerAlgorithm} param value per provider + algorithm pair (so every cell gets JMH's warm-up and
+ * forks, and is measured for both throughput and sampled latency), and lines the results up per algorithm, key length
+ * and iteration count to show which provider is fastest on this JDK.
+ *
+ * <pre>
+ *   java -cp target/benchmarks.jar dunkyboy.crypto.CryptoBenchmarkMatrix -keyLengths 160,256 \
+ *       -iterations 1000,10000 -format csv -out matrix.csv -f 2 -wi 3 -i 5
+ * </pre>
+ *
+ * Matrix options (anything else goes to JMH):
+ * <ul>
+ *   <li>-providers - regex of provider names to include; default all</li>
+ *   <li>-algorithms - regex of algorithms to include; default PBKDF2WithHmacSHA(1|256|512)</li>
+ *   <li>-keyLengths - comma-separated, in bits; default 160</li>
+ *   <li>-iterations - comma-separated; default 1000,10000</li>
+ *   <li>-format - csv or json, for the -out file; the text table always goes to stdout. Default csv</li>
+ *   <li>-out - default crypto-matrix.csv (or .json)</li>
+ * </ul>
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CryptoBenchmarkMatrix {
+
+    private static final String PASSWORD = "e43b16b3a2fb8e8b63b57a6ab4c13da5";  // example real MMS key (cloud-dev)
+
+    /**
+     * "provider:algorithm"; {@link #main} replaces this default with every installed pair that matches.
+     */
+    @Param("SunJCE:PBKDF2WithHmacSHA1")
+    public String providerAlgorithm;
+
+    @Param("160")
+    public int keyLength;
+
+    @Param({ "1000", "10000" })
+    public int iterations;
+
+    private SecretKeyFactory factory;
+    private byte[] salt;
+
+    @Setup
+    public void setUp() throws NoSuchAlgorithmException {
+        final int colon = providerAlgorithm.lastIndexOf(':');
+        final Provider provider = Security.getProvider(providerAlgorithm.substring(0, colon));
+        if (provider == null)
+            throw new NoSuchAlgorithmException("no such provider: " + providerAlgorithm);
+        factory = SecretKeyFactory.getInstance(providerAlgorithm.substring(colon + 1), provider);
+
+        salt = new byte[16];
+        new SecureRandom().nextBytes(salt);
+    }
+
+    @Benchmark
+    public byte[] generateHash() {
+        return KeyFactoryBenchmark.generateHash(factory, PASSWORD, salt, iterations, keyLength);
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        Pattern providers = Pattern.compile(".*");
+        Pattern algorithms = Pattern.compile("PBKDF2WithHmacSHA(1|256|512)");
+        String[] keyLengths = { "160" };
+        String[] iterations = { "1000", "10000" };
+        String format = "csv";
+        Path outFile = null;
+        final List<String> jmhArgs = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-providers":  providers = Pattern.compile(args[++i]);  break;
+                    case "-algorithms": algorithms = Pattern.compile(args[++i]); break;
+                    case "-keyLengths": keyLengths = parseInts(args[++i]);       break;
+                    case "-iterations": iterations = parseInts(args[++i]);       break;
+                    case "-format":     format = args[++i];                      break;
+                    case "-out":        outFile = Paths.get(args[++i]);          break;
+                    default:            jmhArgs.add(args[i]);                    break;
+                }
+            }
+            if (!format.equals("csv") && !format.equals("json"))
+                throw new IllegalArgumentException("unknown format: " + format);
+        } catch (final RuntimeException e) {
+            System.out.println("Expected args: [-providers regex] [-algorithms regex] [-keyLengths 160,256] " +
+                "[-iterations 1000,10000] [-format csv|json] [-out file] [JMH args] - " + e);
+            System.exit(1);
+            return;
+        }
+        if (outFile == null)
+            outFile = Paths.get("crypto-matrix." + format);
+
+        final List<String> providerAlgorithms = new ArrayList<>();
+        System.out.println("Starting benchmark matrix at " + new Date() + ":");
+        System.out.println("  java:        " + System.getProperty("java.vendor") + " " +
+            System.getProperty("java.version"));
+        System.out.println("  providers:");
+        for (final Provider provider : Security.getProviders()) {
+            final List<String> supported = supportedAlgorithms(provider, algorithms);
+            if (!providers.matcher(provider.getName()).matches() || supported.isEmpty())
+                continue;
+            System.out.println("    " + provider.getName() + " " + provider.getVersion() + ": " + supported);
+            for (final String algorithm : supported)
+                providerAlgorithms.add(provider.getName() + ":" + algorithm);
+        }
+        System.out.println("  key lengths: " + String.join(", ", keyLengths));
+        System.out.println("  iterations:  " + String.join(", ", iterations));
+        if (providerAlgorithms.isEmpty()) {
+            System.out.println("No installed provider matches");
+            return;
+        }
+
+        final String benchmark = CryptoBenchmarkMatrix.class.getName() + ".generateHash";
+        final Collection<RunResult> results = new Runner(new OptionsBuilder()
+            .parent(new CommandLineOptions(jmhArgs.toArray(new String[0])))
+            .include(Pattern.quote(benchmark))
+            .mode(Mode.Throughput)
+            .mode(Mode.SampleTime)
+            .timeUnit(TimeUnit.SECONDS)  // the cells read scores as ops/s and samples as seconds
+            .param("providerAlgorithm", providerAlgorithms.toArray(new String[0]))
+            .param("keyLength", keyLengths)
+            .param("iterations", iterations)
+            .build()).run();
+
+        // each cell was run once per mode
+        final Map<String, Cell> cellsByParams = new LinkedHashMap<>();
+        for (final RunResult result : results) {
+            if (!result.getParams().getBenchmark().equals(benchmark))
+                continue;
+            final String key = result.getParams().getParam("providerAlgorithm") + "/" +
+                result.getParams().getParam("keyLength") + "/" + result.getParams().getParam("iterations");
+            cellsByParams.computeIfAbsent(key, k -> new Cell(result)).add(result);
+        }
+
+        final List<Cell> cells = new ArrayList<>();
+        for (final Cell cell : cellsByParams.values()) {
+            if (cell.latencySeconds == null || Double.isNaN(cell.opsPerSec))
+                throw new IllegalStateException("missing throughput or sample time results for " + cell.provider +
+                    " " + cell.algorithm);
+            cells.add(cell);
+        }
+        cells.sort(Comparator.comparing((Cell cell) -> cell.algorithm)
+            .thenComparingInt(cell -> cell.keyLength)
+            .thenComparingInt(cell -> cell.iterations)
+            .thenComparing(Comparator.comparingDouble((Cell cell) -> cell.opsPerSec).reversed()));
+
+        printTable(cells, System.out);
+        Files.write(outFile, (format.equals("csv") ? csv(cells) : json(cells)).getBytes(StandardCharsets.UTF_8));
+        System.out.println("\nMatrix written to " + outFile.toAbsolutePath());
+    }
+
+    private static List<String> supportedAlgorithms(Provider provider, Pattern algorithms) {
+        final Set<String> supported = new TreeSet<>();
+        for (final Provider.Service service : provider.getServices()) {
+            if (service.getType().equals("SecretKeyFactory") && algorithms.matcher(service.getAlgorithm()).matches())
+                supported.add(service.getAlgorithm());
+        }
+        return new ArrayList<>(supported);
+    }
+
+    private static String[] parseInts(String list) {
+        final String[] values = list.split(",");
+        for (final String value : values)
+            Integer.parseInt(value.trim());  // fail now, not in a fork
+        return Arrays.stream(values).map(String::trim).toArray(String[]::new);
+    }
+
+    /**
+     * One provider + algorithm + key length + iteration count's results: its throughput run, and its sample time run
+     * for latency percentiles.
+     */
+    private static final class Cell {
+        final String provider;
+        final String algorithm;
+        final int keyLength;
+        final int iterations;
+        double opsPerSec = Double.NaN;
+        double opsPerSecError = Double.NaN;
+        Statistics latencySeconds;  // in the benchmark's output unit, seconds
+
+        Cell(RunResult result) {
+            final String providerAlgorithm = result.getParams().getParam("providerAlgorithm");
+            final int colon = providerAlgorithm.lastIndexOf(':');
+            this.provider = providerAlgorithm.substring(0, colon);
+            this.algorithm = providerAlgorithm.substring(colon + 1);
+            this.keyLength = Integer.parseInt(result.getParams().getParam("keyLength"));
+            this.iterations = Integer.parseInt(result.getParams().getParam("iterations"));
+        }
+
+        void add(RunResult result) {
+            switch (result.getParams().getMode()) {
+                case Throughput:
+                    opsPerSec = result.getPrimaryResult().getScore();
+                    opsPerSecError = result.getPrimaryResult().getScoreError();
+                    break;
+                case SampleTime:
+                    latencySeconds = result.getPrimaryResult().getStatistics();
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        boolean sameCaseAs(Cell other) {
+            return algorithm.equals(other.algorithm) && keyLength == other.keyLength && iterations == other.iterations;
+        }
+
+        long samples() {
+            return latencySeconds.getN();
+        }
+
+        double millisAt(double percentile) {
+            return latencySeconds.getPercentile(percentile) * 1_000;
+        }
+
+        double maxMillis() {
+            return latencySeconds.getMax() * 1_000;
+        }
+    }
+
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+    /**
+     * Fastest provider first within each algorithm, key length and iteration count, with each one's speed relative to
+     * the fastest.
+     */
+    private static void printTable(List<Cell> cells, PrintStream out) {
+        out.println();
+        out.println(String.format("%-24s %6s %10s %-16s %14s %12s %8s %10s %10s %10s %10s",
+            "algorithm", "bits", "iterations", "provider", "ops/s", "error", "vs best",
+            "p50 ms", "p90 ms", "p99 ms", "p99.9 ms"));
+
+        Cell best = null;
+        for (final Cell cell : cells) {
+            if (best == null || !best.sameCaseAs(cell)) {
+                best = cell;
+                out.println();
+            }
+            out.println(String.format("%-24s %6d %,10d %-16s %,14.1f %,12.1f %7.0f%% %10.3f %10.3f %10.3f %10.3f",
+                cell.algorithm, cell.keyLength, cell.iterations, cell.provider, cell.opsPerSec, cell.opsPerSecError,
+                100 * cell.opsPerSec / best.opsPerSec,
+                cell.millisAt(50), cell.millisAt(90), cell.millisAt(99), cell.millisAt(99.9)));
+        }
+    }
+
+    private static String csv(List<Cell> cells) {
+        final StringBuilder csv = new StringBuilder(
+            "provider,algorithm,keyLength,iterations,opsPerSec,opsPerSecError,samples,p50Millis,p90Millis," +
+            "p99Millis,p999Millis,maxMillis\n");
+        for (final Cell cell : cells) {
+            csv.append(String.format(Locale.US, "\"%s\",%s,%d,%d,%.3f,%.3f,%d,%.4f,%.4f,%.4f,%.4f,%.4f%n",
+                cell.provider.replace("\"", "\"\""), cell.algorithm, cell.keyLength, cell.iterations,
+                cell.opsPerSec, cell.opsPerSecError, cell.samples(), cell.millisAt(50), cell.millisAt(90),
+                cell.millisAt(99), cell.millisAt(99.9), cell.maxMillis()));
+        }
+        return csv.toString();
+    }
+
+    private static String json(List<Cell> cells) {
+        final JsonWriter json = new JsonWriter().beginArray();
+        for (final Cell cell : cells) {
+            json.beginObject()
+                .name("provider").value(cell.provider)
+                .name("algorithm").value(cell.algorithm)
+                .name("keyLength").value(cell.keyLength)
+                .name("iterations").value(cell.iterations)
+                .name("opsPerSec").value(cell.opsPerSec)
+                .name("opsPerSecError").value(cell.opsPerSecError)
+                .name("samples").value(cell.samples())
+                .name("latencyMillis").beginObject();
+            for (final double percentile : PERCENTILES)
+                json.name("p" + (percentile == Math.rint(percentile) ? String.valueOf((long) percentile)
+                    : String.valueOf(percentile))).value(cell.millisAt(percentile));
+            json.name("max").value(cell.maxMillis())
+                .endObject()
+                .endObject();
+        }
+        return json.endArray().toString() + "\n";
+    }
+}
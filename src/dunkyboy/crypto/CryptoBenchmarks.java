@@ -0,0 +1,61 @@
+package dunkyboy.crypto;
+
+import org.openjdk.jmh.annotations.*;
+
+import javax.crypto.SecretKeyFactory;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * {@link dunkyboy.bench.Benchmarks} for this package: {@link KeyFactoryBenchmark}'s hash generation (which also covers
+ * ScratchPad.testHashGenerationRuntime, i.e. PBKDF2WithHmacSHA512 at 10,000 iterations) as a proper benchmark, through
+ * either the JCE or {@link Pbkdf2Engine}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CryptoBenchmarks {
+
+    private static final String PASSWORD = "e43b16b3a2fb8e8b63b57a6ab4c13da5";  // example real MMS key (cloud-dev)
+
+    @Param({ "PBKDF2WithHmacSHA1", "PBKDF2WithHmacSHA256", "PBKDF2WithHmacSHA512" })
+    public String algorithm;
+
+    @Param({ "1000", "10000" })
+    public int iterations;
+
+    @Param("160")
+    public int keyLength;
+
+    @Param({ "jce", "reuse" })
+    public String engine;
+
+    private SecretKeyFactory factory;
+    private Pbkdf2Engine reusableEngine;  // null for the JCE
+    private byte[] salt;
+    private byte[] hash;
+
+    @Setup
+    public void setUp() throws NoSuchAlgorithmException {
+        factory = SecretKeyFactory.getInstance(algorithm);
+        reusableEngine = engine.equals("reuse") ? Pbkdf2Engine.create(algorithm) : null;
+
+        salt = new byte[16];
+        new SecureRandom().nextBytes(salt);
+        hash = new byte[keyLength / 8];
+    }
+
+    @Benchmark
+    public byte[] generateHash() {
+        if (reusableEngine != null) {
+            reusableEngine.deriveKey(PASSWORD, salt, iterations, hash, 0, hash.length);
+            return hash;
+        }
+        return KeyFactoryBenchmark.generateHash(factory, PASSWORD, salt, iterations, keyLength);
+    }
+}
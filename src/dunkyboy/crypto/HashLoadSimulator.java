@@ -0,0 +1,185 @@
+package dunkyboy.crypto;
+
+import dunkyboy.util.LatencyHistogram;
+
+import javax.crypto.SecretKeyFactory;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Date;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * Open-loop load generator for the PBKDF2 path: login requests arrive at a target rate (evenly spaced, or as a
+ * Poisson process) regardless of how fast they're being served, and queue for a bounded pool of hashing threads -
+ * i.e. what the auth tier sees, rather than {@link KeyFactoryBenchmark}'s tight loop.
+ *
+ * Every request's latency is measured from when it was <em>scheduled</em> to arrive, not from when the dispatcher
+ * got round to submitting it, so a backed-up system can't hide its queueing (no coordinated omission). Queueing delay,
+ * service time (the hash itself) and response time (both) are reported separately.
+ *
+ * Requests are plain tasks on the bounded executor rather than a thread each: the hashing pool is the concurrency
+ * limit either way, and this stays on the Java 8 language level the project builds with.
+ */
+public class HashLoadSimulator {
+
+    public static void main(String[] args) throws Exception {
+
+        final String password = "e43b16b3a2fb8e8b63b57a6ab4c13da5";  // example real MMS key (cloud-dev)
+
+        final String keyAlgo;
+        final int numHashAlgoIterations;
+        final double requestsPerSec;
+        final int durationSecs;
+        final int hashThreads;
+        final boolean poissonArrivals;
+        final int queueCapacity;
+        final int warmupSecs;
+        try {
+            keyAlgo               = args[0];  // e.g. "PBKDF2WithHmacSHA512"
+            numHashAlgoIterations = Integer.parseInt(args[1]);  // e.g. 10_000
+            requestsPerSec        = Double.parseDouble(args[2]);  // e.g. 200
+            durationSecs          = Integer.parseInt(args[3]);  // e.g. 60
+
+            hashThreads     = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+            poissonArrivals = args.length > 5 && args[5].equals("poisson");
+            queueCapacity   = args.length > 6 ? Integer.parseInt(args[6]) : 10_000;
+            warmupSecs      = args.length > 7 ? Integer.parseInt(args[7]) : 5;
+
+        } catch (final Exception e) {
+            System.out.println("Expected args: keyAlgo (String), numHashAlgoIterations (int), requestsPerSec (double), " +
+                "durationSecs (int), [hashThreads (int)], [constant|poisson], [queueCapacity (int)], [warmupSecs (int)]");
+            System.exit(1);
+            return;
+        }
+
+        System.out.println("Starting load simulation at " + new Date() + ":");
+        System.out.println("  key algo:        " + keyAlgo);
+        System.out.println("  algo iterations: " + numHashAlgoIterations);
+        System.out.println("  arrival rate:    " + requestsPerSec + " / sec (" + (poissonArrivals ? "poisson" : "constant") + ")");
+        System.out.println("  duration:        " + durationSecs + " secs (+ " + warmupSecs + " secs warm-up)");
+        System.out.println("  hash threads:    " + hashThreads);
+        System.out.println("  queue capacity:  " + queueCapacity);
+
+        final byte[] salt = new byte[16];
+        new SecureRandom().nextBytes(salt);
+
+        new HashLoadSimulator(keyAlgo, password, salt, numHashAlgoIterations, hashThreads, queueCapacity)
+            .run(requestsPerSec, poissonArrivals, warmupSecs, durationSecs);
+    }
+
+    private final String password;
+    private final byte[] salt;
+    private final int numHashAlgoIterations;
+
+    private final ThreadLocal<SecretKeyFactory> factories;  // one per hashing thread
+    private final ExecutorService hashingExecutor;
+    private final Semaphore capacity;  // hashing threads + queue slots
+
+    private final LatencyHistogram queueingNanos = new LatencyHistogram();
+    private final LatencyHistogram serviceNanos = new LatencyHistogram();
+    private final LatencyHistogram responseNanos = new LatencyHistogram();
+
+    private final AtomicLong hashChecksum = new AtomicLong();
+
+    HashLoadSimulator(String keyAlgo, String password, byte[] salt, int numHashAlgoIterations, int hashThreads,
+                      int queueCapacity) throws NoSuchAlgorithmException {
+
+        SecretKeyFactory.getInstance(keyAlgo);  // fail fast on a bad algorithm
+
+        this.password = password;
+        this.salt = salt;
+        this.numHashAlgoIterations = numHashAlgoIterations;
+
+        this.factories = ThreadLocal.withInitial(() -> {
+            try {
+                return SecretKeyFactory.getInstance(keyAlgo);
+            } catch (final NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);  // checked above
+            }
+        });
+        this.hashingExecutor = Executors.newFixedThreadPool(hashThreads);
+        this.capacity = new Semaphore(hashThreads + queueCapacity);
+    }
+
+    void run(double requestsPerSec, boolean poissonArrivals, int warmupSecs, int durationSecs) throws InterruptedException {
+
+        final long startNanos = System.nanoTime();
+        final long measureFromNanos = startNanos + TimeUnit.SECONDS.toNanos(warmupSecs);
+        final long endNanos = measureFromNanos + TimeUnit.SECONDS.toNanos(durationSecs);
+        final double meanIntervalNanos = 1_000_000_000.0 / requestsPerSec;
+
+        long requestCount = 0;
+        long measuredRequestCount = 0;
+        double scheduleOffsetNanos = 0;
+
+        while (true) {
+            scheduleOffsetNanos += poissonArrivals
+                ? -Math.log(1.0 - ThreadLocalRandom.current().nextDouble()) * meanIntervalNanos
+                : meanIntervalNanos;
+            final long intendedStartNanos = startNanos + (long) scheduleOffsetNanos;
+            if (intendedStartNanos >= endNanos)
+                break;
+
+            waitUntil(intendedStartNanos);
+
+            // if we're blocked here the schedule keeps going, and the late requests are charged for the wait
+            capacity.acquire();
+
+            final boolean measured = intendedStartNanos >= measureFromNanos;
+            hashingExecutor.execute(() -> serve(intendedStartNanos, measured));
+
+            requestCount++;
+            if (measured)
+                measuredRequestCount++;
+        }
+
+        hashingExecutor.shutdown();
+        hashingExecutor.awaitTermination(1, TimeUnit.DAYS);
+        final long lastCompletionNanos = System.nanoTime();
+
+        final double measuredSecs = (Math.max(lastCompletionNanos, endNanos) - measureFromNanos) / 1_000_000_000.0;
+        System.out.println();
+        System.out.println(String.format("requests: %,d (%,d measured), offered: %.1f / sec, achieved: %.1f / sec",
+            requestCount, measuredRequestCount, requestsPerSec, measuredRequestCount / measuredSecs));
+
+        System.out.println("\nqueueing delay (scheduled arrival -> hashing starts):");
+        queueingNanos.printPercentiles(System.out, "ms", 1_000_000.0);
+        System.out.println("\nservice time (hashing):");
+        serviceNanos.printPercentiles(System.out, "ms", 1_000_000.0);
+        System.out.println("\nresponse time (scheduled arrival -> hash done):");
+        responseNanos.printPercentiles(System.out, "ms", 1_000_000.0);
+
+        System.out.println("  (hash checksum for compiler's benefit: " + hashChecksum.get() + ")");
+    }
+
+    private void serve(long intendedStartNanos, boolean measured) {
+        try {
+            final long serviceStartNanos = System.nanoTime();
+            final byte[] hash = KeyFactoryBenchmark.generateHash(factories.get(), password, salt, numHashAlgoIterations, 160);
+            final long serviceEndNanos = System.nanoTime();
+
+            hashChecksum.addAndGet(hash[0]);
+
+            if (measured) {
+                queueingNanos.recordValue(Math.max(0, serviceStartNanos - intendedStartNanos));
+                serviceNanos.recordValue(serviceEndNanos - serviceStartNanos);
+                responseNanos.recordValue(Math.max(0, serviceEndNanos - intendedStartNanos));
+            }
+        } finally {
+            capacity.release();
+        }
+    }
+
+    private static void waitUntil(long deadlineNanos) {
+        long remainingNanos;
+        while ((remainingNanos = deadlineNanos - System.nanoTime()) > 0) {
+            if (remainingNanos > 100_000)
+                LockSupport.parkNanos(remainingNanos - 50_000);  // park overshoots, so wake a little early
+            else
+                Thread.yield();
+        }
+    }
+}
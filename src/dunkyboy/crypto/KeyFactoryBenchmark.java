@@ -1,6 +1,6 @@
 package dunkyboy.crypto;
 
-import dunkyboy.util.ThreadsafeRunningAverage;
+import dunkyboy.util.LatencyHistogram;
 
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.PBEKeySpec;
@@ -8,33 +8,53 @@ import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.spec.KeySpec;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
-import java.util.stream.IntStream;
+import java.util.concurrent.CountDownLatch;
 
 
 /**
  * Standalone key hashing benchmark created for https://jira.mongodb.org/browse/CLOUDP-21375
  *
+ * Optionally runs the hashing on several threads at once (or sweeps over thread counts) to get a scaling curve. Each
+ * worker thread has its own {@link SecretKeyFactory} (and so its own Mac), and the test iterations are split evenly
+ * between the workers.
+ *
+ * The hashing engine is selectable: "jce" (the default) goes through {@link SecretKeyFactory}, "reuse" through
+ * {@link Pbkdf2Engine}, which is checked against the JCE before the run starts.
+ *
  * Created by darmstrong on 3/24/17.
  */
 public class KeyFactoryBenchmark {
 
-    public static void main(String[] args) throws NoSuchAlgorithmException {
+    public static void main(String[] args) throws NoSuchAlgorithmException, InterruptedException {
+
+        final int keyLength = 160;
 
         final String password = "e43b16b3a2fb8e8b63b57a6ab4c13da5";  // example real MMS key (cloud-dev)
 
         final String keyAlgo;
         final int numHashAlgoIterations;
         final int numTestIterations;
+        final List<Integer> threadCounts;
+        final boolean reuseEngine;
         try {
             keyAlgo = args[0];  // e.g. "PBKDF2WithHmacSHA512"
 
             numHashAlgoIterations = Integer.parseInt(args[1]);  // e.g. 1_000
             numTestIterations     = Integer.parseInt(args[2]);  // e.g. 10_000
 
+            threadCounts = args.length > 3 ? parseThreadCounts(args[3]) : parseThreadCounts("1");  // e.g. "8", "sweep", "sweep:32"
+
+            final String engine = args.length > 4 ? args[4] : "jce";
+            if (!engine.equals("jce") && !engine.equals("reuse"))
+                throw new IllegalArgumentException("unknown engine: " + engine);
+            reuseEngine = engine.equals("reuse");
+
         } catch (final Exception e) {
-            System.out.println("Expected 3 args: keyAlgo (String), numHashAlgoIteations (int), numTestIterations (int)");
+            System.out.println("Expected 3 to 5 args: keyAlgo (String), numHashAlgoIteations (int), numTestIterations (int), " +
+                "[threads (int) | sweep | sweep:maxThreads], [engine: jce | reuse]");
             System.exit(1);
             return;
         }
@@ -43,47 +63,175 @@ public class KeyFactoryBenchmark {
         System.out.println("  key algo:        " + keyAlgo);
         System.out.println("  algo iterations: " + numHashAlgoIterations);
         System.out.println("  test iterations: " + numTestIterations);
-
-        final long startNanos = System.nanoTime();
+        System.out.println("  threads:         " + threadCounts);
+        System.out.println("  engine:          " + (reuseEngine ? "reuse" : "jce"));
 
         final byte[] salt = new byte[16];
         new SecureRandom().nextBytes(salt);
 
         SecretKeyFactory factory = SecretKeyFactory.getInstance(keyAlgo);
 
+        if (reuseEngine) {
+            final byte[] expected = generateHash(factory, password, salt, numHashAlgoIterations, keyLength);
+            final byte[] actual = Pbkdf2Engine.create(keyAlgo).deriveKey(password, salt, numHashAlgoIterations, keyLength);
+            if (!Arrays.equals(expected, actual)) {
+                System.out.println("Pbkdf2Engine output doesn't match the JCE's for " + keyAlgo + " - not benchmarking it");
+                System.exit(1);
+                return;
+            }
+        }
+
         // warm up the VM
-        for (int i = 0; i < 1_000; i++)
-            generateHash(factory, password, salt, numHashAlgoIterations, 160);
+        final Pbkdf2Engine warmupEngine = reuseEngine ? Pbkdf2Engine.create(keyAlgo) : null;
+        for (int i = 0; i < 1_000; i++) {
+            if (warmupEngine != null)
+                warmupEngine.deriveKey(password, salt, numHashAlgoIterations, keyLength);
+            else
+                generateHash(factory, password, salt, numHashAlgoIterations, keyLength);
+        }
+
+        if (threadCounts.size() == 1) {
+            final RunResult result = run(keyAlgo, reuseEngine, password, salt, numHashAlgoIterations, keyLength,
+                numTestIterations, threadCounts.get(0));
+
+            System.out.println("latency over " + numTestIterations +
+                " iterations (total elapsed: " + (result.elapsedNanos/1_000_000.0) + "ms, " +
+                String.format("%.1f", result.hashesPerSec()) + " hashes/sec):");
+            result.elapsedNanosHistogram.printPercentiles(System.out, "ms", 1_000_000.0);
+
+            System.out.println("  (hash checksum for compiler's benefit: " + result.checksum + ")");
+            return;
+        }
 
-        List<byte[]> bufferOfHashResultsToEnsureCompilerDoesntOptimizeMyWork = new ArrayList<>(1_000);  // capped to keep heap usage reasonable
+        System.out.println();
+        System.out.println(String.format("%8s %14s %12s %12s %12s %12s %12s",
+            "threads", "hashes/sec", "efficiency", "mean (ms)", "p50 (ms)", "p99 (ms)", "max (ms)"));
+
+        double singleThreadHashesPerSec = Double.NaN;
+        long checksum = 0;
+        for (final int threadCount : threadCounts) {
+            final RunResult result = run(keyAlgo, reuseEngine, password, salt, numHashAlgoIterations, keyLength,
+                numTestIterations, threadCount);
+            if (threadCount == 1)
+                singleThreadHashesPerSec = result.hashesPerSec();
+
+            final LatencyHistogram histogram = result.elapsedNanosHistogram;
+            System.out.println(String.format("%8d %,14.1f %11.0f%% %12.3f %12.3f %12.3f %12.3f",
+                threadCount,
+                result.hashesPerSec(),
+                100 * result.hashesPerSec() / (threadCount * singleThreadHashesPerSec),
+                histogram.getMean() / 1_000_000.0,
+                histogram.getValueAtPercentile(50) / 1_000_000.0,
+                histogram.getValueAtPercentile(99) / 1_000_000.0,
+                histogram.getMax() / 1_000_000.0));
+            checksum += result.checksum;
+        }
+        System.out.println("  (hash checksum for compiler's benefit: " + checksum + ")");
+    }
 
-        ThreadsafeRunningAverage averageElapsedNanos = new ThreadsafeRunningAverage();
-        IntStream.range(0, numTestIterations)
-//            .parallel()
-            .forEach( i -> {
-                    long iterationStartNanos = System.nanoTime();
-                    byte[] hash = generateHash(factory, password, salt, numHashAlgoIterations, 160);
-                    long elapsedNanos = System.nanoTime() - iterationStartNanos;
+    private static final class RunResult {
+        final long elapsedNanos;
+        final long hashCount;
+        final LatencyHistogram elapsedNanosHistogram;  // per-hash latency, from all threads
+        final long checksum;
+
+        RunResult(long elapsedNanos, long hashCount, LatencyHistogram elapsedNanosHistogram, long checksum) {
+            this.elapsedNanos = elapsedNanos;
+            this.hashCount = hashCount;
+            this.elapsedNanosHistogram = elapsedNanosHistogram;
+            this.checksum = checksum;
+        }
+
+        double hashesPerSec() {
+            return hashCount / (elapsedNanos / 1_000_000_000.0);
+        }
+    }
 
-                    if (bufferOfHashResultsToEnsureCompilerDoesntOptimizeMyWork.size() == 1_000) {
-                        bufferOfHashResultsToEnsureCompilerDoesntOptimizeMyWork.clear();
+    private static RunResult run(String keyAlgo, boolean reuseEngine, String password, byte[] salt,
+                                 int numHashAlgoIterations, int keyLength, int numTestIterations, int threadCount)
+            throws NoSuchAlgorithmException, InterruptedException {
+
+        final LatencyHistogram elapsedNanosHistogram = new LatencyHistogram();
+        final long[] checksums = new long[threadCount];
+        final RuntimeException[] failures = new RuntimeException[threadCount];
+        final CountDownLatch start = new CountDownLatch(1);
+
+        final Thread[] workers = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            final int workerIndex = t;
+            final int workerIterations = numTestIterations / threadCount + (t < numTestIterations % threadCount ? 1 : 0);
+            final SecretKeyFactory workerFactory = SecretKeyFactory.getInstance(keyAlgo);  // one per worker: no sharing
+            final Pbkdf2Engine workerEngine = reuseEngine ? Pbkdf2Engine.create(keyAlgo) : null;
+            final byte[] workerHash = new byte[keyLength / 8];
+
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+
+                    long checksum = 0;
+                    for (int i = 0; i < workerIterations; i++) {
+                        long iterationStartNanos = System.nanoTime();
+                        byte[] hash;
+                        if (workerEngine == null) {
+                            hash = generateHash(workerFactory, password, salt, numHashAlgoIterations, keyLength);
+                        } else {
+                            workerEngine.deriveKey(password, salt, numHashAlgoIterations, workerHash, 0, workerHash.length);
+                            hash = workerHash;
+                        }
+                        long elapsedNanos = System.nanoTime() - iterationStartNanos;
+
+                        checksum += hash[0];
+                        elapsedNanosHistogram.recordValue(elapsedNanos);
                     }
-                    bufferOfHashResultsToEnsureCompilerDoesntOptimizeMyWork.add(hash);
+                    checksums[workerIndex] = checksum;
 
-                    averageElapsedNanos.addValue(elapsedNanos);
+                } catch (final InterruptedException e) {
+                    failures[workerIndex] = new RuntimeException(e);
+                } catch (final RuntimeException e) {
+                    failures[workerIndex] = e;
                 }
-            );
-
-        long totalElapsedNanos = System.nanoTime() - startNanos;
+            }, "HashWorker-" + t);
+            workers[t].start();
+        }
 
-        System.out.println("avg elapsed over " + numTestIterations +
-            " iterations: " + (averageElapsedNanos.get()/1_000_000.0) + "ms" +
-            " (total elapsed: " + (totalElapsedNanos/1_000_000.0) + "ms)");
+        final long startNanos = System.nanoTime();
+        start.countDown();
+        for (final Thread worker : workers)
+            worker.join();
+        final long elapsedNanos = System.nanoTime() - startNanos;
+
+        long checksum = 0;
+        for (int t = 0; t < threadCount; t++) {
+            if (failures[t] != null)
+                throw failures[t];
+            checksum += checksums[t];
+        }
+        return new RunResult(elapsedNanos, numTestIterations, elapsedNanosHistogram, checksum);
+    }
 
-        System.out.println("  (buffer size for compiler's benefit: " + bufferOfHashResultsToEnsureCompilerDoesntOptimizeMyWork.size() + ")");
+    /**
+     * @param spec a thread count, or "sweep[:max]" for 1, 2, 4, .. up to max (default twice the core count)
+     */
+    private static List<Integer> parseThreadCounts(String spec) {
+        final List<Integer> threadCounts = new ArrayList<>();
+        if (!spec.startsWith("sweep")) {
+            threadCounts.add(Integer.parseInt(spec));
+        } else {
+            final int maxThreads = spec.startsWith("sweep:")
+                ? Integer.parseInt(spec.substring("sweep:".length()))
+                : 2 * Runtime.getRuntime().availableProcessors();
+            for (int threads = 1; threads < maxThreads; threads *= 2)
+                threadCounts.add(threads);
+            threadCounts.add(maxThreads);
+        }
+        for (final int threadCount : threadCounts) {
+            if (threadCount < 1)
+                throw new IllegalArgumentException("thread counts must be positive: " + spec);
+        }
+        return threadCounts;
     }
 
-    private static byte[] generateHash(SecretKeyFactory factory, String password, byte[] salt, int numIterations, int keyLength) {
+    static byte[] generateHash(SecretKeyFactory factory, String password, byte[] salt, int numIterations, int keyLength) {
         try {
             KeySpec spec = new PBEKeySpec(password.toCharArray(), salt, numIterations, keyLength);
             return factory.generateSecret(spec).getEncoded();
@@ -0,0 +1,303 @@
+package dunkyboy.crypto;
+
+import dunkyboy.util.JsonWriter;
+
+import javax.crypto.SecretKeyFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Finds, for each algorithm, the highest PBKDF2 iteration count whose p99 hashing latency stays within a budget on this
+ * machine at a given concurrency - rather than guessing args for {@link KeyFactoryBenchmark} by hand.
+ *
+ * The search doubles the iteration count until the budget is blown (or halves it until it's met), then binary
+ * searches the bracket down to a relative tolerance. A count only meets the budget if an upper confidence bound on
+ * its p99, not just the sample p99, is within it: the bound is the order statistic that the true p99 lies below with
+ * the requested confidence (the number of samples under the true p99 is Binomial(n, 0.99)), so it needs no
+ * assumptions about the latency distribution.
+ */
+public class Pbkdf2Calibrator {
+
+    private static final double PERCENTILE = 0.99;
+
+    public static void main(String[] args) throws Exception {
+
+        final String password = "e43b16b3a2fb8e8b63b57a6ab4c13da5";  // example real MMS key (cloud-dev)
+
+        final double targetP99Millis;
+        final int concurrency;
+        final List<String> keyAlgos;
+        final int samples;
+        final double confidence;
+        final String jsonFile;
+        try {
+            targetP99Millis = Double.parseDouble(args[0]);  // e.g. 50
+            concurrency     = Integer.parseInt(args[1]);  // e.g. 8
+            keyAlgos        = Arrays.asList(args[2].split(","));  // e.g. "PBKDF2WithHmacSHA256,PBKDF2WithHmacSHA512"
+
+            samples    = args.length > 3 ? Integer.parseInt(args[3]) : 1_000;
+            confidence = args.length > 4 ? Double.parseDouble(args[4]) : 0.95;
+            jsonFile   = args.length > 5 ? args[5] : null;
+
+            if (upperBoundRank(samples, PERCENTILE, confidence) > samples)
+                throw new IllegalArgumentException("too few samples for that confidence");
+
+        } catch (final Exception e) {
+            System.out.println("Expected args: targetP99Millis (double), concurrency (int), keyAlgos (comma-separated), " +
+                "[samples (int)], [confidence (double)], [jsonFile]");
+            System.exit(1);
+            return;
+        }
+
+        System.out.println("Starting calibration at " + new Date() + ":");
+        System.out.println("  p99 target:      " + targetP99Millis + " ms");
+        System.out.println("  concurrency:     " + concurrency);
+        System.out.println("  key algos:       " + keyAlgos);
+        System.out.println("  samples:         " + samples + " per step");
+        System.out.println("  confidence:      " + confidence);
+
+        final byte[] salt = new byte[16];
+        new SecureRandom().nextBytes(salt);
+
+        final Pbkdf2Calibrator calibrator = new Pbkdf2Calibrator(password, salt, 160, concurrency, samples, confidence);
+        final long targetNanos = (long) (targetP99Millis * 1_000_000);
+
+        final List<Result> results = new ArrayList<>();
+        for (final String keyAlgo : keyAlgos) {
+            System.out.println();
+            System.out.println(keyAlgo + ":");
+            results.add(calibrator.calibrate(keyAlgo, targetNanos));
+        }
+
+        System.out.println();
+        System.out.println(String.format("%-24s %14s %14s %16s %12s",
+            "algorithm", "iterations", "p99 (ms)", "p99 bound (ms)", "hashes/sec"));
+        for (final Result result : results) {
+            if (result.measurement == null) {
+                System.out.println(String.format("%-24s %14s", result.keyAlgo, "none"));
+                continue;
+            }
+            System.out.println(String.format("%-24s %,14d %14.3f %16.3f %,12.1f",
+                result.keyAlgo, result.iterations,
+                result.measurement.p99Nanos / 1_000_000.0,
+                result.measurement.p99UpperBoundNanos / 1_000_000.0,
+                result.measurement.hashesPerSec));
+        }
+
+        final String json = toJson(results, targetP99Millis, concurrency, samples, confidence);
+        if (jsonFile != null) {
+            Files.write(Paths.get(jsonFile), json.getBytes(StandardCharsets.UTF_8));
+            System.out.println("\nResults written to " + jsonFile);
+        } else {
+            System.out.println();
+            System.out.println(json);
+        }
+    }
+
+    private static final class Measurement {
+        final long p99Nanos;
+        final long p99UpperBoundNanos;
+        final long maxNanos;
+        final double hashesPerSec;
+
+        Measurement(long p99Nanos, long p99UpperBoundNanos, long maxNanos, double hashesPerSec) {
+            this.p99Nanos = p99Nanos;
+            this.p99UpperBoundNanos = p99UpperBoundNanos;
+            this.maxNanos = maxNanos;
+            this.hashesPerSec = hashesPerSec;
+        }
+    }
+
+    private static final class Result {
+        final String keyAlgo;
+        final int iterations;            // 0 if even a single iteration is over budget
+        final Measurement measurement;   // at that iteration count, or null
+
+        Result(String keyAlgo, int iterations, Measurement measurement) {
+            this.keyAlgo = keyAlgo;
+            this.iterations = iterations;
+            this.measurement = measurement;
+        }
+    }
+
+    private static final int START_ITERATIONS = 1_000;
+    private static final double TOLERANCE = 0.02;  // stop when the bracket is within 2%
+
+    private final String password;
+    private final byte[] salt;
+    private final int keyLength;
+    private final int concurrency;
+    private final int samples;
+    private final int upperBoundRank;
+
+    Pbkdf2Calibrator(String password, byte[] salt, int keyLength, int concurrency, int samples, double confidence) {
+        this.password = password;
+        this.salt = salt;
+        this.keyLength = keyLength;
+        this.concurrency = concurrency;
+        this.samples = samples;
+        this.upperBoundRank = upperBoundRank(samples, PERCENTILE, confidence);
+    }
+
+    Result calibrate(String keyAlgo, long targetNanos) throws NoSuchAlgorithmException, InterruptedException {
+
+        // warm up the VM
+        final SecretKeyFactory factory = SecretKeyFactory.getInstance(keyAlgo);
+        for (int i = 0; i < 1_000; i++)
+            KeyFactoryBenchmark.generateHash(factory, password, salt, START_ITERATIONS, keyLength);
+
+        // bracket: lo meets the budget (or is 0), hi doesn't
+        int lo, hi;
+        Measurement loMeasurement = null;
+
+        Measurement measurement = measure(keyAlgo, START_ITERATIONS, targetNanos);
+        if (measurement.p99UpperBoundNanos <= targetNanos) {
+            lo = START_ITERATIONS;
+            loMeasurement = measurement;
+            for (hi = 2 * lo; ; hi *= 2) {
+                measurement = measure(keyAlgo, hi, targetNanos);
+                if (measurement.p99UpperBoundNanos > targetNanos)
+                    break;
+                lo = hi;
+                loMeasurement = measurement;
+                if (hi > Integer.MAX_VALUE / 2)
+                    return new Result(keyAlgo, lo, loMeasurement);
+            }
+        } else {
+            hi = START_ITERATIONS;
+            for (lo = hi / 2; lo > 0; lo /= 2) {
+                measurement = measure(keyAlgo, lo, targetNanos);
+                if (measurement.p99UpperBoundNanos <= targetNanos) {
+                    loMeasurement = measurement;
+                    break;
+                }
+                hi = lo;
+            }
+            if (lo == 0)
+                return new Result(keyAlgo, 0, null);
+        }
+
+        while (hi - lo > Math.max(1, (long) (lo * TOLERANCE))) {
+            final int mid = lo + (hi - lo) / 2;
+            measurement = measure(keyAlgo, mid, targetNanos);
+            if (measurement.p99UpperBoundNanos <= targetNanos) {
+                lo = mid;
+                loMeasurement = measurement;
+            } else {
+                hi = mid;
+            }
+        }
+        return new Result(keyAlgo, lo, loMeasurement);
+    }
+
+    /**
+     * Hashes {@link #samples} times (after a short warm-up) across {@link #concurrency} threads at once.
+     */
+    private Measurement measure(String keyAlgo, int iterations, long targetNanos)
+            throws NoSuchAlgorithmException, InterruptedException {
+
+        final int warmupSamples = Math.max(concurrency, samples / 10);
+        final long[] latencies = new long[samples];
+        final AtomicInteger nextSample = new AtomicInteger(-warmupSamples);
+        final CountDownLatch start = new CountDownLatch(1);
+        final long[] measureStartNanos = new long[1];
+
+        final Thread[] workers = new Thread[concurrency];
+        for (int t = 0; t < concurrency; t++) {
+            final SecretKeyFactory workerFactory = SecretKeyFactory.getInstance(keyAlgo);
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (final InterruptedException e) {
+                    return;
+                }
+                // keep every worker busy until the last sample is in, so the concurrency holds throughout
+                for (int sample; (sample = nextSample.getAndIncrement()) < samples; ) {
+                    if (sample == 0)
+                        measureStartNanos[0] = System.nanoTime();
+
+                    final long startNanos = System.nanoTime();
+                    KeyFactoryBenchmark.generateHash(workerFactory, password, salt, iterations, keyLength);
+                    final long elapsedNanos = System.nanoTime() - startNanos;
+
+                    if (sample >= 0)
+                        latencies[sample] = elapsedNanos;
+                }
+            }, "CalibrationWorker-" + t);
+            workers[t].start();
+        }
+
+        start.countDown();
+        for (final Thread worker : workers)
+            worker.join();
+        final long elapsedNanos = System.nanoTime() - measureStartNanos[0];
+
+        Arrays.sort(latencies);
+        final Measurement measurement = new Measurement(
+            latencies[(int) Math.ceil(PERCENTILE * samples) - 1],
+            latencies[upperBoundRank - 1],
+            latencies[samples - 1],
+            samples / (elapsedNanos / 1_000_000_000.0));
+
+        System.out.println(String.format("  %,12d iterations: p99 %10.3f ms, p99 bound %10.3f ms, max %10.3f ms -> %s",
+            iterations, measurement.p99Nanos / 1_000_000.0, measurement.p99UpperBoundNanos / 1_000_000.0,
+            measurement.maxNanos / 1_000_000.0, measurement.p99UpperBoundNanos <= targetNanos ? "ok" : "over"));
+        return measurement;
+    }
+
+    /**
+     * @return the 1-based rank k of the smallest order statistic X(k) of n samples that's above the true
+     *         {@code percentile} with probability at least {@code confidence}, or n + 1 if there aren't enough samples
+     */
+    static int upperBoundRank(int n, double percentile, double confidence) {
+        // P(X(k) >= q) = P(fewer than k samples below q) = P(Binomial(n, percentile) <= k - 1)
+        final double logP = Math.log(percentile);
+        final double logQ = Math.log1p(-percentile);
+
+        double logPmf = n * logQ;  // P(Binomial = 0)
+        double cdf = 0;
+        for (int i = 0; i <= n; i++) {
+            if (i > 0)
+                logPmf += Math.log((double) (n - i + 1) / i) + logP - logQ;
+            cdf += Math.exp(logPmf);
+            if (cdf >= confidence)
+                return i + 1;
+        }
+        return n + 1;
+    }
+
+    private static String toJson(List<Result> results, double targetP99Millis, int concurrency, int samples,
+                                 double confidence) {
+        final JsonWriter json = new JsonWriter().beginObject()
+            .name("targetP99Millis").value(targetP99Millis)
+            .name("concurrency").value(concurrency)
+            .name("samples").value(samples)
+            .name("confidence").value(confidence)
+            .name("availableProcessors").value(Runtime.getRuntime().availableProcessors())
+            .name("results").beginArray();
+
+        for (final Result result : results) {
+            json.beginObject()
+                .name("algorithm").value(result.keyAlgo)
+                .name("iterations").value(result.iterations);
+            if (result.measurement != null) {
+                json.name("p99Millis").value(result.measurement.p99Nanos / 1_000_000.0)
+                    .name("p99UpperBoundMillis").value(result.measurement.p99UpperBoundNanos / 1_000_000.0)
+                    .name("maxMillis").value(result.measurement.maxNanos / 1_000_000.0)
+                    .name("hashesPerSec").value(result.measurement.hashesPerSec);
+            }
+            json.endObject();
+        }
+        return json.endArray().endObject().toString();
+    }
+}
@@ -0,0 +1,197 @@
+package dunkyboy.crypto;
+
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * PBKDF2-HMAC-SHA* (RFC 8018) that produces the same bytes as the JCE's {@code PBKDF2WithHmacSHA*}
+ * {@link javax.crypto.SecretKeyFactory}, without allocating per hash.
+ *
+ * The JCE path builds a PBEKeySpec, copies the password, creates a key object, sets up a fresh Mac and copies the
+ * result out again, every call. This keeps the HMAC state for the last password (its padded inner and outer key
+ * blocks) and reruns the digest straight into preallocated buffers, so a derivation with a repeated password only
+ * allocates the password's UTF-8 bytes - nothing per iteration, which the JCE Mac's doFinal does.
+ *
+ * The engine doesn't hold on to the password itself: it recognizes a repeated one by a digest of its bytes, and
+ * {@link #clear} wipes the cached key blocks too, for callers that don't want them outliving the derivation.
+ *
+ * An engine is not thread-safe; use {@link #forThread} for one per thread. As with the JCE, the password is encoded
+ * as UTF-8.
+ */
+public final class Pbkdf2Engine {
+
+    private static final ThreadLocal<Map<String, Pbkdf2Engine>> threadEngines = ThreadLocal.withInitial(HashMap::new);
+
+    private final String algorithm;
+    private final MessageDigest digest;
+    private final int hashBytes;
+
+    private final byte[] innerPad;  // HMAC key ^ 0x36, padded to the digest's block size
+    private final byte[] outerPad;  // HMAC key ^ 0x5c, ditto
+    private final byte[] keyedPasswordDigest;  // digest of the password the pads were built from
+    private final byte[] passwordDigest;       // scratch for the current password's
+    private boolean keyed = false;
+
+    private final byte[] u;         // U_j, the chained HMAC output
+    private final byte[] t;         // T_i, the XOR of all the U_j for one output block
+    private final byte[] blockIndex = new byte[4];
+
+    private Pbkdf2Engine(String algorithm, MessageDigest digest, int blockBytes) {
+        this.algorithm = algorithm;
+        this.digest = digest;
+        this.hashBytes = digest.getDigestLength();
+        this.innerPad = new byte[blockBytes];
+        this.outerPad = new byte[blockBytes];
+        this.u = new byte[hashBytes];
+        this.t = new byte[hashBytes];
+        this.keyedPasswordDigest = new byte[hashBytes];
+        this.passwordDigest = new byte[hashBytes];
+    }
+
+    /**
+     * @param algorithm a JCE SecretKeyFactory name: PBKDF2WithHmacSHA1, PBKDF2WithHmacSHA224, PBKDF2WithHmacSHA256,
+     *                  PBKDF2WithHmacSHA384 or PBKDF2WithHmacSHA512
+     */
+    public static Pbkdf2Engine create(String algorithm) throws NoSuchAlgorithmException {
+        switch (algorithm) {
+            case "PBKDF2WithHmacSHA1":   return new Pbkdf2Engine(algorithm, MessageDigest.getInstance("SHA-1"), 64);
+            case "PBKDF2WithHmacSHA224": return new Pbkdf2Engine(algorithm, MessageDigest.getInstance("SHA-224"), 64);
+            case "PBKDF2WithHmacSHA256": return new Pbkdf2Engine(algorithm, MessageDigest.getInstance("SHA-256"), 64);
+            case "PBKDF2WithHmacSHA384": return new Pbkdf2Engine(algorithm, MessageDigest.getInstance("SHA-384"), 128);
+            case "PBKDF2WithHmacSHA512": return new Pbkdf2Engine(algorithm, MessageDigest.getInstance("SHA-512"), 128);
+            default: throw new NoSuchAlgorithmException("unsupported PBKDF2 algorithm: " + algorithm);
+        }
+    }
+
+    /**
+     * @return the calling thread's engine for {@code algorithm}, created on first use
+     */
+    public static Pbkdf2Engine forThread(String algorithm) throws NoSuchAlgorithmException {
+        final Map<String, Pbkdf2Engine> engines = threadEngines.get();
+        Pbkdf2Engine engine = engines.get(algorithm);
+        if (engine == null) {
+            engine = create(algorithm);
+            engines.put(algorithm, engine);
+        }
+        return engine;
+    }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Same as {@code factory.generateSecret(new PBEKeySpec(password.toCharArray(), salt, iterations, keyLengthBits)).getEncoded()}.
+     */
+    public byte[] deriveKey(String password, byte[] salt, int iterations, int keyLengthBits) {
+        if (keyLengthBits <= 0 || keyLengthBits % 8 != 0)
+            throw new IllegalArgumentException("key length must be a positive multiple of 8 bits: " + keyLengthBits);
+
+        final byte[] key = new byte[keyLengthBits / 8];
+        deriveKey(password, salt, iterations, key, 0, key.length);
+        return key;
+    }
+
+    /**
+     * Writes the first {@code keyBytes} bytes of the derived key into {@code out} at {@code outOffset}.
+     */
+    public void deriveKey(String password, byte[] salt, int iterations, byte[] out, int outOffset, int keyBytes) {
+        if (iterations < 1)
+            throw new IllegalArgumentException("iterations must be positive: " + iterations);
+        if (keyBytes < 1 || outOffset < 0 || outOffset + keyBytes > out.length)
+            throw new IllegalArgumentException("no room for " + keyBytes + " key bytes at offset " + outOffset +
+                " of " + out.length);
+
+        setPassword(password);
+
+        for (int block = 1, written = 0; written < keyBytes; block++) {
+            blockIndex[0] = (byte) (block >>> 24);
+            blockIndex[1] = (byte) (block >>> 16);
+            blockIndex[2] = (byte) (block >>> 8);
+            blockIndex[3] = (byte) block;
+
+            // U_1 = HMAC(password, salt || INT(block))
+            digest.update(innerPad);
+            digest.update(salt);
+            digest.update(blockIndex);
+            finishHmac();
+            System.arraycopy(u, 0, t, 0, hashBytes);
+
+            // U_j = HMAC(password, U_j-1), T = U_1 ^ U_2 ^ ... ^ U_iterations
+            for (int j = 1; j < iterations; j++) {
+                digest.update(innerPad);
+                digest.update(u);
+                finishHmac();
+                for (int b = 0; b < hashBytes; b++)
+                    t[b] ^= u[b];
+            }
+
+            final int blockBytes = Math.min(hashBytes, keyBytes - written);
+            System.arraycopy(t, 0, out, outOffset + written, blockBytes);
+            written += blockBytes;
+        }
+    }
+
+    /**
+     * Wipes the key blocks and password digest kept from the last derivation; the next one rebuilds them.
+     */
+    public void clear() {
+        Arrays.fill(innerPad, (byte) 0);
+        Arrays.fill(outerPad, (byte) 0);
+        Arrays.fill(keyedPasswordDigest, (byte) 0);
+        Arrays.fill(u, (byte) 0);
+        Arrays.fill(t, (byte) 0);
+        keyed = false;
+    }
+
+    /**
+     * Finishes the inner hash that's been fed into the digest, then runs the outer one, leaving the HMAC in {@link #u}.
+     */
+    private void finishHmac() {
+        try {
+            digest.digest(u, 0, hashBytes);
+            digest.update(outerPad);
+            digest.update(u);
+            digest.digest(u, 0, hashBytes);
+        } catch (final DigestException e) {
+            throw new IllegalStateException(e);  // can't happen, u is exactly one digest long
+        }
+    }
+
+    private void setPassword(String password) {
+        byte[] key = password.getBytes(StandardCharsets.UTF_8);
+        try {
+            digest.update(key);
+            digest.digest(passwordDigest, 0, hashBytes);
+        } catch (final DigestException e) {
+            throw new IllegalStateException(e);  // can't happen, passwordDigest is exactly one digest long
+        }
+        if (keyed && MessageDigest.isEqual(passwordDigest, keyedPasswordDigest)) {
+            Arrays.fill(key, (byte) 0);
+            return;
+        }
+
+        if (key.length > innerPad.length) {
+            final byte[] longKey = key;
+            key = digest.digest(longKey);
+            Arrays.fill(longKey, (byte) 0);
+        }
+
+        Arrays.fill(innerPad, (byte) 0x36);
+        Arrays.fill(outerPad, (byte) 0x5c);
+        for (int i = 0; i < key.length; i++) {
+            innerPad[i] ^= key[i];
+            outerPad[i] ^= key[i];
+        }
+        Arrays.fill(key, (byte) 0);
+
+        System.arraycopy(passwordDigest, 0, keyedPasswordDigest, 0, hashBytes);
+        keyed = true;
+    }
+}
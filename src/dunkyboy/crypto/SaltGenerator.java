@@ -0,0 +1,112 @@
+package dunkyboy.crypto;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+
+/**
+ * Random salts for provisioning credentials, without seeding a new {@link SecureRandom} for every one: each thread
+ * gets its own instance of the configured algorithm (so there's no contention on a shared one's lock), seeded once on
+ * first use. Salts come one at a time, or N at a time into one contiguous buffer, and {@link Base64Encoder} can encode
+ * them without allocating.
+ *
+ * The algorithm is whatever {@link SecureRandom#getInstance} takes, e.g. "DRBG" (Java 9+), "NativePRNGNonBlocking"
+ * or "SHA1PRNG", or null for the platform default ({@code new SecureRandom()}).
+ */
+public class SaltGenerator {
+
+    private final String algorithm;
+
+    private final int saltLength;
+
+    private final ThreadLocal<SecureRandom> random;
+
+    /**
+     * @throws NoSuchAlgorithmException straight away, rather than on some thread's first salt
+     */
+    public SaltGenerator(String algorithm, int saltLength) throws NoSuchAlgorithmException {
+        if (saltLength < 1)
+            throw new IllegalArgumentException("salt length must be positive: " + saltLength);
+        if (algorithm != null)
+            SecureRandom.getInstance(algorithm);
+
+        this.algorithm = algorithm;
+        this.saltLength = saltLength;
+        this.random = ThreadLocal.withInitial(this::newSecureRandom);
+    }
+
+    private SecureRandom newSecureRandom() {
+        if (algorithm == null)
+            return new SecureRandom();
+        try {
+            return SecureRandom.getInstance(algorithm);
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);  // checked in the constructor
+        }
+    }
+
+    public int getSaltLength() {
+        return saltLength;
+    }
+
+    /**
+     * @return the algorithm the current thread's instance actually uses, e.g. the platform default's name
+     */
+    public String getAlgorithm() {
+        return random.get().getAlgorithm();
+    }
+
+    public byte[] nextSalt() {
+        final byte[] salt = new byte[saltLength];
+        random.get().nextBytes(salt);
+        return salt;
+    }
+
+    /**
+     * Fills all of {@code salts} with one call to the thread's generator: salt i is
+     * {@code salts[i * saltLength, (i + 1) * saltLength)}.
+     *
+     * @return how many salts that is
+     */
+    public int nextSalts(byte[] salts) {
+        if (salts.length % saltLength != 0)
+            throw new IllegalArgumentException("buffer length " + salts.length +
+                " isn't a multiple of the salt length " + saltLength);
+        random.get().nextBytes(salts);
+        return salts.length / saltLength;
+    }
+
+    /**
+     * @return {@code count} salts back to back, as for {@link #nextSalts(byte[])}
+     */
+    public byte[] nextSalts(int count) {
+        final byte[] salts = new byte[Math.multiplyExact(count, saltLength)];
+        nextSalts(salts);
+        return salts;
+    }
+
+    /**
+     * @return how many bytes one salt's Base64 takes in {@link #encodeSalts}
+     */
+    public int encodedSaltLength() {
+        return Base64Encoder.encodedLength(saltLength);
+    }
+
+    /**
+     * Base64-encodes every salt in {@code salts} (as filled by {@link #nextSalts(byte[])}) into {@code encoded},
+     * back to back at {@link #encodedSaltLength()} bytes each.
+     *
+     * @return how many bytes were written
+     */
+    public int encodeSalts(byte[] salts, byte[] encoded) {
+        final int count = salts.length / saltLength;
+        final int encodedSaltLength = encodedSaltLength();
+        if (encoded.length < count * encodedSaltLength)
+            throw new IllegalArgumentException("need " + count * encodedSaltLength + " bytes to encode " + count +
+                " salts, got " + encoded.length);
+
+        for (int i = 0; i < count; i++)
+            Base64Encoder.encode(salts, i * saltLength, saltLength, encoded, i * encodedSaltLength);
+        return count * encodedSaltLength;
+    }
+}
@@ -0,0 +1,137 @@
+package dunkyboy.crypto;
+
+import org.apache.commons.codec.binary.Base64;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Date;
+
+
+/**
+ * Compares ways of making Base64-encoded salts, for salts/sec and heap bytes allocated per salt (from the JVM's
+ * per-thread allocation counter):
+ *
+ * <ul>
+ *   <li>perCall - what ScratchPad.testRandomSaltBase64 does: a new {@link SecureRandom} and array per salt, encoded
+ *       with commons-codec to a String</li>
+ *   <li>threadLocal - {@link SaltGenerator#nextSalt()}, still encoded with commons-codec to a String</li>
+ *   <li>bulk - {@link SaltGenerator#nextSalts(byte[])} a batch at a time into one buffer, encoded with
+ *       {@link Base64Encoder} into another, both reused</li>
+ * </ul>
+ *
+ * The bulk encoding is checked against commons-codec before anything's timed.
+ */
+public class SaltGeneratorBenchmark {
+
+    private static final com.sun.management.ThreadMXBean threadMxBean =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws NoSuchAlgorithmException {
+
+        final int numSalts;
+        final int saltLength;
+        final String algorithm;
+        final int batchSize;
+        try {
+            numSalts   = Integer.parseInt(args[0]);  // e.g. 1_000_000
+            saltLength = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+            algorithm  = args.length > 2 && !args[2].equals("default") ? args[2] : null;  // e.g. "SHA1PRNG"
+            batchSize  = args.length > 3 ? Integer.parseInt(args[3]) : 1_024;
+        } catch (final Exception e) {
+            System.out.println("Expected args: numSalts (int), [saltLength (int)], [algorithm (String) | default], " +
+                "[batchSize (int)]");
+            System.exit(1);
+            return;
+        }
+
+        final SaltGenerator generator = new SaltGenerator(algorithm, saltLength);
+
+        System.out.println("Starting benchmark with params at " + new Date() + ":");
+        System.out.println("  salts:       " + numSalts);
+        System.out.println("  salt length: " + saltLength);
+        System.out.println("  algorithm:   " + generator.getAlgorithm());
+        System.out.println("  batch size:  " + batchSize);
+
+        final byte[] salts = generator.nextSalts(batchSize);
+        final byte[] encoded = new byte[batchSize * generator.encodedSaltLength()];
+        generator.encodeSalts(salts, encoded);
+        for (int i = 0; i < batchSize; i++) {
+            final String expected =
+                Base64.encodeBase64String(Arrays.copyOfRange(salts, i * saltLength, (i + 1) * saltLength));
+            final String actual = new String(encoded, i * generator.encodedSaltLength(), generator.encodedSaltLength(),
+                StandardCharsets.US_ASCII);
+            if (!expected.equals(actual)) {
+                System.out.println("Base64Encoder output doesn't match commons-codec's: " + actual + " vs " + expected);
+                System.exit(1);
+                return;
+            }
+        }
+
+        if (threadMxBean.isThreadAllocatedMemorySupported())
+            threadMxBean.setThreadAllocatedMemoryEnabled(true);
+
+        long hash = 0;
+        for (int round = 0; round < 2; round++) {  // the first round's just warm-up
+            final boolean print = round == 1;
+            if (print)
+                System.out.println(String.format("%n%-12s %14s %18s", "impl", "salts / sec", "bytes / salt"));
+
+            final int n = print ? numSalts : Math.min(numSalts, 100_000);
+            hash += run("perCall", n, print, () -> {
+                final byte[] salt = new byte[saltLength];
+                new SecureRandom().nextBytes(salt);
+                return Base64.encodeBase64String(salt).hashCode();
+            });
+            hash += run("threadLocal", n, print, () -> Base64.encodeBase64String(generator.nextSalt()).hashCode());
+            hash += runBulk(generator, n, salts, encoded, print);
+        }
+
+        System.out.println("\nhash checksum for compiler's benefit: " + hash);
+    }
+
+    private interface SaltSource {
+        int next();
+    }
+
+    private static long run(String impl, int numSalts, boolean print, SaltSource source) {
+        long hash = 0;
+        final long allocatedBefore = allocatedBytes();
+        final long startNanos = System.nanoTime();
+        for (int i = 0; i < numSalts; i++)
+            hash += source.next();
+        report(impl, numSalts, System.nanoTime() - startNanos, allocatedBytes() - allocatedBefore, print);
+        return hash;
+    }
+
+    private static long runBulk(SaltGenerator generator, int numSalts, byte[] salts, byte[] encoded, boolean print) {
+        long hash = 0;
+        final long allocatedBefore = allocatedBytes();
+        final long startNanos = System.nanoTime();
+        int done = 0;
+        while (done < numSalts) {
+            done += generator.nextSalts(salts);
+            generator.encodeSalts(salts, encoded);
+            hash += encoded[0];
+        }
+        report("bulk", done, System.nanoTime() - startNanos, allocatedBytes() - allocatedBefore, print);
+        return hash;
+    }
+
+    private static void report(String impl, int numSalts, long nanos, long allocatedBytes, boolean print) {
+        if (print)
+            System.out.println(String.format("%-12s %,14.0f %18.1f", impl,
+                numSalts / (nanos / 1_000_000_000.0), (double) allocatedBytes / numSalts));
+    }
+
+    /**
+     * @return heap bytes this thread has allocated so far, or 0 if the JVM can't say
+     */
+    private static long allocatedBytes() {
+        return threadMxBean.isThreadAllocatedMemoryEnabled()
+            ? threadMxBean.getThreadAllocatedBytes(Thread.currentThread().getId())
+            : 0;
+    }
+}
@@ -0,0 +1,297 @@
+package dunkyboy.crypto;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Size- and TTL-bounded cache in front of {@link KeyFactoryBenchmark#generateHash}, so a hot API key that's re-verified
+ * over and over pays the PBKDF2 cost once per TTL rather than once per check.
+ *
+ * Entries are keyed by an HMAC-SHA256 of (algorithm, salt, iterations, key length, password) under a random key that
+ * never leaves the process, so the cache holds neither the plaintext nor anything an attacker could brute-force
+ * offline without that key - only the digest and the derived hash it would have stored anyway.
+ *
+ * The cache is split into independently locked stripes, each a segmented LRU: new entries go into a probationary
+ * segment and are promoted to a protected one (80% of the stripe) on their second hit, so a burst of one-off keys
+ * can only evict other one-off keys. Expired entries are dropped when next looked up. Hashes are derived outside the
+ * stripe lock, so two threads missing on the same key at once will both derive it.
+ */
+public final class VerifiedHashCache {
+
+    private static final double PROTECTED_FRACTION = 0.8;
+
+    private final Stripe[] stripes;
+    private final int stripeMask;
+    private final long ttlNanos;
+
+    private final byte[] digestKey = new byte[32];
+    private final ThreadLocal<Mac> digests;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    /**
+     * Striped for the machine: four stripes per core, rounded up to a power of two.
+     */
+    public VerifiedHashCache(int maxEntries, long ttl, TimeUnit ttlUnit) {
+        this(maxEntries, ttl, ttlUnit, 4 * Runtime.getRuntime().availableProcessors());
+    }
+
+    public VerifiedHashCache(int maxEntries, long ttl, TimeUnit ttlUnit, int stripeCount) {
+        if (maxEntries < 1)
+            throw new IllegalArgumentException("max entries must be positive: " + maxEntries);
+        if (ttl <= 0)
+            throw new IllegalArgumentException("TTL must be positive: " + ttl);
+        if (stripeCount < 1)
+            throw new IllegalArgumentException("stripe count must be positive: " + stripeCount);
+
+        // a power of two, but no more stripes than entries
+        int stripesPow2 = Integer.highestOneBit(Math.min(stripeCount, maxEntries));
+        if (stripesPow2 < stripeCount && stripesPow2 * 2 <= maxEntries)
+            stripesPow2 *= 2;
+
+        this.stripes = new Stripe[stripesPow2];
+        this.stripeMask = stripesPow2 - 1;
+        // the first maxEntries % stripes stripes take one extra entry each, so the capacities add up to maxEntries
+        final int stripeCapacity = maxEntries / stripesPow2;
+        final int extraEntries = maxEntries % stripesPow2;
+        for (int i = 0; i < stripesPow2; i++)
+            stripes[i] = new Stripe(stripeCapacity + (i < extraEntries ? 1 : 0));
+
+        this.ttlNanos = ttlUnit.toNanos(ttl);
+
+        new SecureRandom().nextBytes(digestKey);
+        this.digests = ThreadLocal.withInitial(() -> {
+            try {
+                final Mac mac = Mac.getInstance("HmacSHA256");
+                mac.init(new SecretKeySpec(digestKey, "HmacSHA256"));
+                return mac;
+            } catch (final GeneralSecurityException e) {
+                throw new IllegalStateException(e);  // HmacSHA256 is required of every JRE
+            }
+        });
+        digests.get();  // fail fast, on the constructing thread
+    }
+
+    /**
+     * Same as {@link KeyFactoryBenchmark#generateHash}, from the cache when possible.
+     *
+     * @return a copy of the hash; callers are free to modify it
+     */
+    public byte[] generateHash(SecretKeyFactory factory, String password, byte[] salt, int iterations, int keyLength) {
+        final Key key = digest(factory.getAlgorithm(), password, salt, iterations, keyLength);
+        final Stripe stripe = stripes[key.hashCode() & stripeMask];
+
+        final byte[] cached = stripe.get(key, System.nanoTime());
+        if (cached != null) {
+            hits.increment();
+            return cached.clone();
+        }
+        misses.increment();
+
+        final byte[] hash = KeyFactoryBenchmark.generateHash(factory, password, salt, iterations, keyLength);
+        stripe.put(key, hash.clone(), System.nanoTime() + ttlNanos);
+        return hash;
+    }
+
+    /**
+     * Drops every entry. The counters carry on.
+     */
+    public void clear() {
+        for (final Stripe stripe : stripes)
+            stripe.clear();
+    }
+
+    public int size() {
+        int size = 0;
+        for (final Stripe stripe : stripes)
+            size += stripe.size();
+        return size;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return entries dropped to make room, not counting expired ones
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public long getExpiredCount() {
+        return expirations.sum();
+    }
+
+    public double getHitRate() {
+        final long hitCount = getHitCount();
+        final long lookups = hitCount + getMissCount();
+        return lookups == 0 ? Double.NaN : (double) hitCount / lookups;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("VerifiedHashCache[size=%d, hits=%d, misses=%d, hitRate=%.3f, evictions=%d, expired=%d]",
+            size(), getHitCount(), getMissCount(), getHitRate(), getEvictionCount(), getExpiredCount());
+    }
+
+    private Key digest(String algorithm, String password, byte[] salt, int iterations, int keyLength) {
+        final Mac mac = digests.get();
+
+        final byte[] algorithmBytes = algorithm.getBytes(StandardCharsets.UTF_8);
+        updateInt(mac, algorithmBytes.length);
+        mac.update(algorithmBytes);
+        updateInt(mac, salt.length);
+        mac.update(salt);
+        updateInt(mac, iterations);
+        updateInt(mac, keyLength);
+
+        final byte[] passwordBytes = password.getBytes(StandardCharsets.UTF_8);
+        mac.update(passwordBytes);
+        Arrays.fill(passwordBytes, (byte) 0);
+
+        return new Key(mac.doFinal());
+    }
+
+    private static void updateInt(Mac mac, int value) {
+        mac.update((byte) (value >>> 24));
+        mac.update((byte) (value >>> 16));
+        mac.update((byte) (value >>> 8));
+        mac.update((byte) value);
+    }
+
+    /**
+     * A 256-bit digest, held as four longs.
+     */
+    private static final class Key {
+        private final long d0, d1, d2, d3;
+
+        Key(byte[] digest) {
+            d0 = readLong(digest, 0);
+            d1 = readLong(digest, 8);
+            d2 = readLong(digest, 16);
+            d3 = readLong(digest, 24);
+        }
+
+        private static long readLong(byte[] bytes, int offset) {
+            long value = 0;
+            for (int i = offset; i < offset + 8; i++)
+                value = (value << 8) | (bytes[i] & 0xff);
+            return value;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+            final Key other = (Key) o;
+            return d0 == other.d0 && d1 == other.d1 && d2 == other.d2 && d3 == other.d3;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (d0 >>> 32);  // it's an HMAC output, so any bits will do
+        }
+    }
+
+    private static final class Entry {
+        final byte[] hash;
+        final long expiresAtNanos;
+
+        Entry(byte[] hash, long expiresAtNanos) {
+            this.hash = hash;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+    }
+
+    /**
+     * One segmented LRU. Both segments are access-ordered, least recently used first.
+     */
+    private final class Stripe {
+        private final int capacity;
+        private final int protectedCapacity;
+        private final LinkedHashMap<Key, Entry> probation = new LinkedHashMap<>(16, 0.75f, true);
+        private final LinkedHashMap<Key, Entry> protectedSegment = new LinkedHashMap<>(16, 0.75f, true);
+
+        Stripe(int capacity) {
+            this.capacity = capacity;
+            this.protectedCapacity = Math.max(1, (int) (capacity * PROTECTED_FRACTION));
+        }
+
+        synchronized byte[] get(Key key, long nowNanos) {
+            Entry entry = protectedSegment.get(key);
+            if (entry != null) {
+                if (entry.expiresAtNanos - nowNanos <= 0) {
+                    protectedSegment.remove(key);
+                    expirations.increment();
+                    return null;
+                }
+                return entry.hash;
+            }
+
+            entry = probation.remove(key);
+            if (entry == null)
+                return null;
+            if (entry.expiresAtNanos - nowNanos <= 0) {
+                expirations.increment();
+                return null;
+            }
+
+            // second hit: promote, demoting the protected segment's LRU entry to probation if it's full
+            protectedSegment.put(key, entry);
+            if (protectedSegment.size() > protectedCapacity) {
+                final Iterator<Map.Entry<Key, Entry>> lru = protectedSegment.entrySet().iterator();
+                final Map.Entry<Key, Entry> demoted = lru.next();
+                lru.remove();
+                probation.put(demoted.getKey(), demoted.getValue());
+            }
+            return entry.hash;
+        }
+
+        synchronized void put(Key key, byte[] hash, long expiresAtNanos) {
+            final Entry entry = new Entry(hash, expiresAtNanos);
+            if (protectedSegment.containsKey(key)) {
+                protectedSegment.put(key, entry);  // another thread derived it first
+                return;
+            }
+            probation.put(key, entry);
+
+            while (probation.size() + protectedSegment.size() > capacity) {
+                final LinkedHashMap<Key, Entry> victims = probation.isEmpty() ? protectedSegment : probation;
+                final Iterator<Map.Entry<Key, Entry>> lru = victims.entrySet().iterator();
+                lru.next();
+                lru.remove();
+                evictions.increment();
+            }
+        }
+
+        synchronized void clear() {
+            probation.clear();
+            protectedSegment.clear();
+        }
+
+        synchronized int size() {
+            return probation.size() + protectedSegment.size();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package dunkyboy.crypto;
+
+import javax.crypto.SecretKeyFactory;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Replays a skewed (Zipfian) stream of API key verifications, the way a few hot keys dominate production traffic,
+ * through {@link VerifiedHashCache} and straight through {@link KeyFactoryBenchmark#generateHash}, and compares the
+ * throughput.
+ *
+ * Both runs see the same request sequence, split between the threads. The uncached run is capped at
+ * uncachedRequests (it's exactly the cost of one hash per request, so there's no need to sit through all of them).
+ */
+public class VerifiedHashCacheBenchmark {
+
+    public static void main(String[] args) throws NoSuchAlgorithmException, InterruptedException {
+
+        final String keyAlgo;
+        final int numHashAlgoIterations;
+        final int distinctKeys;
+        final int numRequests;
+        final double zipfExponent;
+        final int cacheSize;
+        final int threads;
+        final int uncachedRequests;
+        try {
+            keyAlgo               = args[0];  // e.g. "PBKDF2WithHmacSHA512"
+            numHashAlgoIterations = Integer.parseInt(args[1]);  // e.g. 10_000
+            distinctKeys          = Integer.parseInt(args[2]);  // e.g. 100_000
+            numRequests           = Integer.parseInt(args[3]);  // e.g. 1_000_000
+
+            zipfExponent     = args.length > 4 ? Double.parseDouble(args[4]) : 0.99;
+            cacheSize        = args.length > 5 ? Integer.parseInt(args[5]) : Math.max(1, distinctKeys / 10);
+            threads          = args.length > 6 ? Integer.parseInt(args[6]) : Runtime.getRuntime().availableProcessors();
+            uncachedRequests = args.length > 7 ? Integer.parseInt(args[7]) : Math.min(numRequests, 1_000);
+
+        } catch (final Exception e) {
+            System.out.println("Expected args: keyAlgo (String), numHashAlgoIterations (int), distinctKeys (int), " +
+                "numRequests (int), [zipfExponent (double)], [cacheSize (int)], [threads (int)], [uncachedRequests (int)]");
+            System.exit(1);
+            return;
+        }
+
+        System.out.println("Starting benchmark with params at " + new Date() + ":");
+        System.out.println("  key algo:          " + keyAlgo);
+        System.out.println("  algo iterations:   " + numHashAlgoIterations);
+        System.out.println("  distinct keys:     " + distinctKeys);
+        System.out.println("  requests:          " + numRequests + " (" + uncachedRequests + " uncached)");
+        System.out.println("  zipf exponent:     " + zipfExponent);
+        System.out.println("  cache size:        " + cacheSize);
+        System.out.println("  threads:           " + threads);
+
+        // every key gets its own salt, as it would in the user store
+        final SecureRandom random = new SecureRandom();
+        final String[] passwords = new String[distinctKeys];
+        final byte[][] salts = new byte[distinctKeys][16];
+        for (int i = 0; i < distinctKeys; i++) {
+            passwords[i] = String.format("%032x", random.nextLong() & Long.MAX_VALUE);
+            random.nextBytes(salts[i]);
+        }
+
+        final int[] requests = zipfianSequence(distinctKeys, zipfExponent, numRequests, new Random(42));
+
+        // warm up the VM
+        final SecretKeyFactory factory = SecretKeyFactory.getInstance(keyAlgo);
+        for (int i = 0; i < 1_000; i++)
+            KeyFactoryBenchmark.generateHash(factory, passwords[0], salts[0], numHashAlgoIterations, 160);
+
+        final VerifiedHashCache cache = new VerifiedHashCache(cacheSize, 1, TimeUnit.HOURS);
+
+        final double uncachedPerSec = run(keyAlgo, null, passwords, salts, numHashAlgoIterations,
+            Arrays.copyOf(requests, uncachedRequests), threads);
+        final double cachedPerSec = run(keyAlgo, cache, passwords, salts, numHashAlgoIterations, requests, threads);
+
+        System.out.println();
+        System.out.println(String.format("uncached: %,14.1f verifications/sec", uncachedPerSec));
+        System.out.println(String.format("cached:   %,14.1f verifications/sec (%.1fx)", cachedPerSec,
+            cachedPerSec / uncachedPerSec));
+        System.out.println("  " + cache);
+    }
+
+    /**
+     * @return verifications per second
+     */
+    private static double run(String keyAlgo, VerifiedHashCache cache, String[] passwords, byte[][] salts,
+                              int numHashAlgoIterations, int[] requests, int threadCount)
+            throws NoSuchAlgorithmException, InterruptedException {
+
+        final long[] checksums = new long[threadCount];
+        final CountDownLatch start = new CountDownLatch(1);
+
+        final Thread[] workers = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            final int workerIndex = t;
+            final SecretKeyFactory workerFactory = SecretKeyFactory.getInstance(keyAlgo);
+
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (final InterruptedException e) {
+                    return;
+                }
+
+                long checksum = 0;
+                for (int i = workerIndex; i < requests.length; i += threadCount) {
+                    final int k = requests[i];
+                    final byte[] hash = cache == null
+                        ? KeyFactoryBenchmark.generateHash(workerFactory, passwords[k], salts[k], numHashAlgoIterations, 160)
+                        : cache.generateHash(workerFactory, passwords[k], salts[k], numHashAlgoIterations, 160);
+                    checksum += hash[0];
+                }
+                checksums[workerIndex] = checksum;
+            }, "VerifyWorker-" + t);
+            workers[t].start();
+        }
+
+        final long startNanos = System.nanoTime();
+        start.countDown();
+        for (final Thread worker : workers)
+            worker.join();
+        final long elapsedNanos = System.nanoTime() - startNanos;
+
+        long checksum = 0;
+        for (final long workerChecksum : checksums)
+            checksum += workerChecksum;
+        System.out.println("  (" + (cache == null ? "uncached" : "cached") + " hash checksum for compiler's benefit: " +
+            checksum + ")");
+
+        return requests.length / (elapsedNanos / 1_000_000_000.0);
+    }
+
+    /**
+     * @return numSamples key indexes in [0, n), index k having probability proportional to 1 / (k + 1)^exponent
+     */
+    static int[] zipfianSequence(int n, double exponent, int numSamples, Random random) {
+        final double[] cdf = new double[n];
+        double total = 0;
+        for (int k = 0; k < n; k++) {
+            total += 1.0 / Math.pow(k + 1, exponent);
+            cdf[k] = total;
+        }
+
+        final int[] samples = new int[numSamples];
+        for (int i = 0; i < numSamples; i++) {
+            final int found = Arrays.binarySearch(cdf, random.nextDouble() * total);
+            samples[i] = Math.min(n - 1, found >= 0 ? found : -found - 1);
+        }
+        return samples;
+    }
+}
@@ -0,0 +1,108 @@
+package dunkyboy.gc;
+
+import dunkyboy.gc.MemoryAllocator.ByteArrayBuilder;
+import dunkyboy.gc.MemoryAllocator.ByteBufferBuilder;
+import dunkyboy.gc.MemoryAllocator.ObjectGraphBuilder;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * {@link dunkyboy.bench.Benchmarks} for this package: the {@link MemoryAllocator} builders, one array per op, from
+ * one thread and from 4 at once sharing one builder. Each array is released as soon as it's consumed, so the pooled
+ * and off-heap builders recycle it, while the GC-managed ones leave it for the collector. Plus the
+ * {@link ObjectGraphBuilders}, one graph per op.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class AllocationBenchmarks {
+
+    @State(Scope.Benchmark)
+    public static class Builders {
+
+        @Param({ "identical", "sequential", "random", "rollingBuffer", "pooledLocal", "pooledShared", "offHeap" })
+        public String builder;
+
+        @Param({ "50", "1024", "65536" })
+        public int arraySize;
+
+        ByteArrayBuilder arrayBuilder;    // null for offHeap
+        ByteBufferBuilder bufferBuilder;  // null for everything else
+
+        @Setup
+        public void setUp() {
+            if (builder.equals("offHeap"))
+                bufferBuilder = new MemoryAllocator.DirectByteBufferBuilder(
+                    MemoryAllocator.SequentialByteArrayBuilder::new, 1 << 20, 1_024);
+            else
+                arrayBuilder = builder(builder);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Graphs {
+
+        @Param({ "linked", "map", "records", "records+churn" })
+        public String graph;
+
+        @Param({ "16", "1024" })
+        public int nodes;
+
+        ObjectGraphBuilder builder;
+
+        @Setup
+        public void setUp() {
+            builder = ObjectGraphBuilders.forName(graph);
+        }
+    }
+
+    @Benchmark
+    public void build(Builders builders, Blackhole blackhole) {
+        buildAndRelease(builders, blackhole);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void buildThreads4(Builders builders, Blackhole blackhole) {
+        buildAndRelease(builders, blackhole);
+    }
+
+    @Benchmark
+    public Object buildGraph(Graphs graphs) {
+        return graphs.builder.build(graphs.nodes);
+    }
+
+    private static void buildAndRelease(Builders builders, Blackhole blackhole) {
+        if (builders.bufferBuilder != null) {
+            final ByteBuffer buffer = builders.bufferBuilder.build(builders.arraySize);
+            blackhole.consume(buffer);
+            builders.bufferBuilder.release(buffer);
+            return;
+        }
+
+        final byte[] bytes = builders.arrayBuilder.build(builders.arraySize);
+        blackhole.consume(bytes);
+        builders.arrayBuilder.release(bytes);
+    }
+
+    private static ByteArrayBuilder builder(String name) {
+        switch (name) {
+            case "identical":     return new MemoryAllocator.IdenticalByteArrayBuilder((byte) 42);
+            case "sequential":    return new MemoryAllocator.SequentialByteArrayBuilder();
+            case "random":        return new MemoryAllocator.RandomByteArrayBuilder();
+            case "rollingBuffer": return new MemoryAllocator.RollingBufferAccumulatingByteArrayBuilder(
+                                      new MemoryAllocator.SequentialByteArrayBuilder(), 100_000);
+            case "pooledLocal":   return new MemoryAllocator.ThreadLocalPooledByteArrayBuilder(
+                                      MemoryAllocator.SequentialByteArrayBuilder::new, 1_024);
+            case "pooledShared":  return new MemoryAllocator.SharedPooledByteArrayBuilder(
+                                      MemoryAllocator.SequentialByteArrayBuilder::new, 1_024);
+            default:              throw new IllegalArgumentException("unknown builder: " + name);
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package dunkyboy.gc;
+
+import dunkyboy.util.JsonWriter;
+import dunkyboy.util.LatencyHistogram;
+
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Drives a {@link MemoryAllocator} through a warm-up window and a measurement window, then stops its threads and
+ * summarizes the measurement: build throughput from the per-second series (mean, spread and percentiles), plus the
+ * collections (and their durations - see {@link GcMonitor}) and allocation stalls that happened in it, and for pooled
+ * builders how often the pool had a buffer to recycle and how much off-heap memory it has reserved.
+ *
+ * Warm-up lasts at least its configured duration, and then carries on until the throughput series looks steady - the
+ * last {@code steadyWindow} seconds vary by no more than {@code maxSteadyCv} (coefficient of variation) and have no
+ * trend bigger than that over the window - or until {@code maxWarmupNanos}, whichever comes first. A run that never
+ * settles is still measured, and says so in its summary.
+ *
+ * Every summary names the heap size and collectors, so batch sweeps over JVM flags can be lined up afterwards.
+ */
+public class AllocationRun {
+
+    public static final class Config {
+        final long warmupNanos;
+        final long maxWarmupNanos;
+        final long measureNanos;
+        final int steadyWindow;
+        final double maxSteadyCv;
+
+        /**
+         * @param warmupNanos    minimum warm-up; 0 to start measuring straight away
+         * @param maxWarmupNanos give up waiting for steady state after this long
+         * @param steadyWindow   how many one-second samples must look steady, at least 2
+         * @param maxSteadyCv    e.g. 0.05 for throughput within about 5% of its mean
+         */
+        public Config(long warmupNanos, long maxWarmupNanos, long measureNanos, int steadyWindow, double maxSteadyCv) {
+            if (warmupNanos < 0 || maxWarmupNanos < warmupNanos || measureNanos <= 0 || steadyWindow < 2
+                    || !(maxSteadyCv > 0))
+                throw new IllegalArgumentException("bad run config: warmup " + warmupNanos + ", max warmup " +
+                    maxWarmupNanos + ", measure " + measureNanos + ", steady window " + steadyWindow +
+                    ", max cv " + maxSteadyCv);
+            this.warmupNanos = warmupNanos;
+            this.maxWarmupNanos = maxWarmupNanos;
+            this.measureNanos = measureNanos;
+            this.steadyWindow = steadyWindow;
+            this.maxSteadyCv = maxSteadyCv;
+        }
+
+        /**
+         * Waits up to 3x the warm-up for 5 seconds within 5% of each other.
+         */
+        public Config(long warmupNanos, long measureNanos) {
+            this(warmupNanos, 3 * warmupNanos, measureNanos, 5, 0.05);
+        }
+    }
+
+    public static final class Summary {
+        public final String builder;
+        public final int size;
+        public final int threads;
+        public final long heapMaxBytes;
+        public final String collectors;
+
+        public final double warmupSecs;
+        public final double steadyAfterSecs;  // -1 if throughput never settled during warm-up
+        public final double measureSecs;
+
+        public final long arraysBuilt;
+        public final long bytesBuilt;
+        public final double[] bytesPerSec;    // one sample per measured second, in order
+
+        public final long collections;
+        public final double gcMillis;
+        public final LatencyHistogram gcDurationNanos;
+        public final LatencyHistogram stallNanos;
+
+        public final boolean pooled;
+        public final long poolBuilds;         // in the measurement
+        public final long poolAllocations;    // of those, how many weren't recycled
+        public final long offHeapReservedBytes;
+
+        Summary(String builder, int size, int threads, double warmupSecs, double steadyAfterSecs, double measureSecs,
+                long arraysBuilt, long bytesBuilt, double[] bytesPerSec, long collections, double gcMillis,
+                LatencyHistogram gcDurationNanos, LatencyHistogram stallNanos, boolean pooled, long poolBuilds,
+                long poolAllocations, long offHeapReservedBytes) {
+            this.builder = builder;
+            this.size = size;
+            this.threads = threads;
+            this.heapMaxBytes = Runtime.getRuntime().maxMemory();
+            final List<String> names = new ArrayList<>();
+            for (final GarbageCollectorMXBean gcMxBean : ManagementFactory.getGarbageCollectorMXBeans())
+                names.add(gcMxBean.getName());
+            this.collectors = String.join(" + ", names);
+            this.warmupSecs = warmupSecs;
+            this.steadyAfterSecs = steadyAfterSecs;
+            this.measureSecs = measureSecs;
+            this.arraysBuilt = arraysBuilt;
+            this.bytesBuilt = bytesBuilt;
+            this.bytesPerSec = bytesPerSec;
+            this.collections = collections;
+            this.gcMillis = gcMillis;
+            this.gcDurationNanos = gcDurationNanos;
+            this.stallNanos = stallNanos;
+            this.pooled = pooled;
+            this.poolBuilds = poolBuilds;
+            this.poolAllocations = poolAllocations;
+            this.offHeapReservedBytes = offHeapReservedBytes;
+        }
+
+        /**
+         * @return the fraction of pooled builds that recycled a buffer, or NaN if there were none
+         */
+        public double getPoolHitRate() {
+            return poolBuilds == 0 ? Double.NaN : (double) (poolBuilds - poolAllocations) / poolBuilds;
+        }
+
+        public double getMeanBytesPerSec() {
+            return bytesBuilt / measureSecs;
+        }
+
+        public double getStdDevBytesPerSec() {
+            return Math.sqrt(variance(bytesPerSec));
+        }
+
+        /**
+         * @return the nearest-rank percentile of the per-second throughput samples, 0 if there are none
+         */
+        public double getBytesPerSecAtPercentile(double percentile) {
+            if (bytesPerSec.length == 0)
+                return 0;
+            final double[] sorted = bytesPerSec.clone();
+            Arrays.sort(sorted);
+            final int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+            return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+        }
+
+        public void print(PrintStream out) {
+            out.println("Summary:");
+            out.println("  builder: " + builder + ", size: " + size + ", threads: " + threads);
+            out.println("  heap max: " + MemoryAllocator.humanReadableByteCount(heapMaxBytes) +
+                ", collectors: " + collectors);
+            out.println(String.format("  warm-up: %.1f secs (%s), measured: %.1f secs", warmupSecs,
+                steadyAfterSecs < 0 ? "never steady" : String.format("steady after %.1f secs", steadyAfterSecs),
+                measureSecs));
+            out.println(String.format("  built %,d arrays, %s", arraysBuilt,
+                MemoryAllocator.humanReadableByteCount(bytesBuilt)));
+            out.println(String.format("  throughput: mean %s / sec, std dev %s / sec (%d samples)",
+                MemoryAllocator.humanReadableByteCount(getMeanBytesPerSec()),
+                MemoryAllocator.humanReadableByteCount(getStdDevBytesPerSec()), bytesPerSec.length));
+            for (final double percentile : new double[] { 0, 10, 50, 90, 100 })
+                out.println(String.format("    %5.1f%%: %s / sec", percentile,
+                    MemoryAllocator.humanReadableByteCount(getBytesPerSecAtPercentile(percentile))));
+            out.println("  " + GcMonitor.DURATION_NOTE);
+            out.println(String.format("  gcs: %,d, total %,.0f ms (%.2f%% of the measurement), longest %.0f ms",
+                collections, gcMillis, gcMillis / 10 / measureSecs, gcDurationNanos.getMax() / 1_000_000.0));
+            out.println(String.format("  allocation stalls: %,d, max %.1f ms", stallNanos.getTotalCount(),
+                stallNanos.getMax() / 1_000_000.0));
+            if (pooled)
+                out.println(String.format("  pool: %.2f%% hit rate (%,d of %,d builds allocated), off-heap reserved %s",
+                    100 * getPoolHitRate(), poolAllocations, poolBuilds,
+                    MemoryAllocator.humanReadableByteCount(offHeapReservedBytes)));
+        }
+
+        public String toJson() {
+            final JsonWriter json = new JsonWriter().beginObject()
+                .name("builder").value(builder)
+                .name("size").value(size)
+                .name("threads").value(threads)
+                .name("heapMaxBytes").value(heapMaxBytes)
+                .name("collectors").value(collectors)
+                .name("warmupSecs").value(warmupSecs)
+                .name("steadyAfterSecs").value(steadyAfterSecs)
+                .name("measureSecs").value(measureSecs)
+                .name("arraysBuilt").value(arraysBuilt)
+                .name("bytesBuilt").value(bytesBuilt)
+                .name("meanBytesPerSec").value(getMeanBytesPerSec())
+                .name("stdDevBytesPerSec").value(getStdDevBytesPerSec())
+                .name("p10BytesPerSec").value(getBytesPerSecAtPercentile(10))
+                .name("p50BytesPerSec").value(getBytesPerSecAtPercentile(50))
+                .name("p90BytesPerSec").value(getBytesPerSecAtPercentile(90))
+                .name("collections").value(collections)
+                .name("gcMillis").value(gcMillis)
+                .name("maxGcMillis").value(gcDurationNanos.getMax() / 1_000_000.0)
+                .name("p99GcMillis").value(gcDurationNanos.getValueAtPercentile(99) / 1_000_000.0)
+                .name("stalls").value(stallNanos.getTotalCount())
+                .name("maxStallMillis").value(stallNanos.getMax() / 1_000_000.0);
+            if (pooled) {
+                json.name("poolBuilds").value(poolBuilds)
+                    .name("poolAllocations").value(poolAllocations)
+                    .name("poolHitRate").value(getPoolHitRate())
+                    .name("offHeapReservedBytes").value(offHeapReservedBytes);
+            }
+            json.name("bytesPerSecSeries").beginArray();
+            for (final double sample : bytesPerSec)
+                json.value(sample);
+            return json.endArray().endObject().toString();
+        }
+    }
+
+    private final MemoryAllocator allocator;
+
+    private final Config config;
+
+    public AllocationRun(MemoryAllocator allocator, Config config) {
+        this.allocator = allocator;
+        this.config = config;
+    }
+
+    /**
+     * Starts the allocator, runs both windows, and stops it (waiting for its threads to finish) before returning.
+     */
+    public Summary run(GcTimeSeries.Format format) throws InterruptedException {
+        final PrintStream log = format == GcTimeSeries.Format.TEXT ? System.out : System.err;
+
+        allocator.start(format);
+        try {
+            final long startNanos = System.nanoTime();
+            final List<Double> warmupSamples = new ArrayList<>();
+            long steadyAtNanos = -1;
+
+            long lastNanos = startNanos;
+            long lastBytes = allocator.getBytesBuilt();
+            while (true) {
+                final long elapsedNanos = lastNanos - startNanos;
+                if (elapsedNanos >= config.maxWarmupNanos || (steadyAtNanos >= 0 && elapsedNanos >= config.warmupNanos))
+                    break;
+
+                TimeUnit.NANOSECONDS.sleep(Math.max(0, lastNanos + 1_000_000_000 - System.nanoTime()));
+                final long nowNanos = System.nanoTime();
+                final long bytes = allocator.getBytesBuilt();
+                warmupSamples.add((bytes - lastBytes) / ((nowNanos - lastNanos) / 1_000_000_000.0));
+                lastNanos = nowNanos;
+                lastBytes = bytes;
+
+                if (steadyAtNanos < 0 && isSteady(warmupSamples, config.steadyWindow, config.maxSteadyCv))
+                    steadyAtNanos = nowNanos;
+            }
+            final double warmupSecs = (lastNanos - startNanos) / 1_000_000_000.0;
+            final double steadyAfterSecs = steadyAtNanos < 0 ? -1 : (steadyAtNanos - startNanos) / 1_000_000_000.0;
+            log.println(String.format("Warm-up done after %.1f secs (%s), measuring for %.1f secs", warmupSecs,
+                steadyAtNanos < 0 ? "throughput never steadied" : "steady", config.measureNanos / 1_000_000_000.0));
+
+            final GcMonitor gcMonitor = allocator.getGcMonitor();
+            gcMonitor.getDurationNanos().intervalSnapshot();  // reset both histograms to the measurement window
+            allocator.getStallNanos().intervalSnapshot();
+            final long collectionsBefore = gcMonitor.getCollectionCount();
+            final long gcNanosBefore = gcMonitor.getTotalDurationNanos();
+            final long arraysBefore = allocator.getArraysBuilt();
+            final long poolBuildsBefore = allocator.getPoolBuilds();
+            final long poolAllocationsBefore = allocator.getPoolAllocations();
+            final long bytesBefore = lastBytes;
+            final long measureStartNanos = lastNanos;
+            final long measureEndNanos = measureStartNanos + config.measureNanos;
+
+            final List<Double> samples = new ArrayList<>();
+            while (lastNanos < measureEndNanos) {
+                TimeUnit.NANOSECONDS.sleep(Math.max(0,
+                    Math.min(lastNanos + 1_000_000_000, measureEndNanos) - System.nanoTime()));
+                final long nowNanos = System.nanoTime();
+                final long bytes = allocator.getBytesBuilt();
+                if (nowNanos - lastNanos >= 500_000_000)  // a sub-second tail would only add noise to the series
+                    samples.add((bytes - lastBytes) / ((nowNanos - lastNanos) / 1_000_000_000.0));
+                lastNanos = nowNanos;
+                lastBytes = bytes;
+            }
+
+            final double[] bytesPerSec = new double[samples.size()];
+            for (int i = 0; i < bytesPerSec.length; i++)
+                bytesPerSec[i] = samples.get(i);
+
+            return new Summary(allocator.getBuilderName(), allocator.getByteArraySize(), allocator.getThreadCount(),
+                warmupSecs, steadyAfterSecs, (lastNanos - measureStartNanos) / 1_000_000_000.0,
+                allocator.getArraysBuilt() - arraysBefore, lastBytes - bytesBefore, bytesPerSec,
+                gcMonitor.getCollectionCount() - collectionsBefore,
+                (gcMonitor.getTotalDurationNanos() - gcNanosBefore) / 1_000_000.0,
+                gcMonitor.getDurationNanos().intervalSnapshot(), allocator.getStallNanos().intervalSnapshot(),
+                allocator.isPooled(), allocator.getPoolBuilds() - poolBuildsBefore,
+                allocator.getPoolAllocations() - poolAllocationsBefore, allocator.getOffHeapReservedBytes());
+        } finally {
+            allocator.stop();
+        }
+    }
+
+    /**
+     * @return whether the last {@code window} samples have a coefficient of variation of at most {@code maxCv}, and
+     *         a least-squares trend across the window of at most {@code maxCv} of their mean
+     */
+    static boolean isSteady(List<Double> samples, int window, double maxCv) {
+        if (samples.size() < window)
+            return false;
+
+        final double[] recent = new double[window];
+        for (int i = 0; i < window; i++)
+            recent[i] = samples.get(samples.size() - window + i);
+
+        double mean = 0;
+        for (final double sample : recent)
+            mean += sample;
+        mean /= window;
+        if (mean <= 0)
+            return false;
+
+        if (Math.sqrt(variance(recent)) / mean > maxCv)
+            return false;
+
+        // slope of the best-fit line through (i, sample), times the window's width
+        final double meanX = (window - 1) / 2.0;
+        double covariance = 0;
+        double varianceX = 0;
+        for (int i = 0; i < window; i++) {
+            covariance += (i - meanX) * (recent[i] - mean);
+            varianceX += (i - meanX) * (i - meanX);
+        }
+        return Math.abs(covariance / varianceX * (window - 1)) / mean <= maxCv;
+    }
+
+    private static double variance(double[] values) {
+        if (values.length < 2)
+            return 0;
+        double mean = 0;
+        for (final double value : values)
+            mean += value;
+        mean /= values.length;
+        double sumOfSquares = 0;
+        for (final double value : values)
+            sumOfSquares += (value - mean) * (value - mean);
+        return sumOfSquares / (values.length - 1);
+    }
+}
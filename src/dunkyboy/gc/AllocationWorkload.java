@@ -0,0 +1,287 @@
+package dunkyboy.gc;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+
+/**
+ * A sequence of allocation phases, each with its own thread count, duration, array-size mix, object lifetimes and
+ * (optionally) a target allocation rate, for {@link WorkloadRunner}.
+ *
+ * A spec is one phase per line (or per ';' on the command line), as space-separated key=value pairs; '#' starts a
+ * comment. Every key is optional:
+ *
+ * <pre>
+ *   name=steady  threads=8  duration=2m  rate=500MB/s  fill=sequential
+ *   sizes=0.9*uniform:64:4k,0.09*lognormal:8k:1.5,0.01*humongous
+ *   lifetime=window:100000  leak=1MB/s
+ * </pre>
+ *
+ * <ul>
+ *   <li>threads - default: available processors</li>
+ *   <li>duration - e.g. 500ms, 30s, 2m, 1h; default 10s</li>
+ *   <li>rate - total bytes/sec across the phase's threads, e.g. 200MB/s, or "unlimited" (the default)</li>
+ *   <li>sizes - a weighted mix of fixed:N, uniform:MIN:MAX, lognormal:MEDIAN:SIGMA and humongous[:REGIONS] (sizes
+ *       from half a G1 region, the smallest humongous allocation, up to REGIONS regions, default 2); default
+ *       fixed:1k. Weights default to 1.</li>
+ *   <li>lifetime - immediate (garbage straight away, the default) or window:N (the last N arrays across all threads
+ *       stay live)</li>
+ *   <li>leak - bytes/sec to keep forever, e.g. 1MB/s; leaked arrays survive later phases too</li>
+ *   <li>fill - zero, sequential or random contents (see {@link MemoryAllocator}'s builders); default sequential</li>
+ * </ul>
+ *
+ * Sizes take k, m and g suffixes (binary), rates the same with a B/s.
+ */
+public final class AllocationWorkload {
+
+    /**
+     * Draws array sizes. Called by one thread at a time, with that thread's own random.
+     */
+    @FunctionalInterface
+    interface SizeDistribution {
+        int next(SplittableRandom random);
+    }
+
+    static final class Phase {
+        final String name;
+        final int threads;
+        final long durationNanos;
+        final double bytesPerSec;      // 0 for unlimited
+        final SizeDistribution sizes;
+        final String sizesSpec;
+        final int window;              // arrays kept live across all threads, 0 for immediate garbage
+        final double leakBytesPerSec;
+        final String fill;
+
+        Phase(String name, int threads, long durationNanos, double bytesPerSec, SizeDistribution sizes,
+              String sizesSpec, int window, double leakBytesPerSec, String fill) {
+            this.name = name;
+            this.threads = threads;
+            this.durationNanos = durationNanos;
+            this.bytesPerSec = bytesPerSec;
+            this.sizes = sizes;
+            this.sizesSpec = sizesSpec;
+            this.window = window;
+            this.leakBytesPerSec = leakBytesPerSec;
+            this.fill = fill;
+        }
+
+        @Override
+        public String toString() {
+            return "name=" + name + " threads=" + threads + " duration=" + durationNanos / 1_000_000 + "ms" +
+                " rate=" + (bytesPerSec == 0 ? "unlimited" : MemoryAllocator.humanReadableByteCount(bytesPerSec) + "/s") +
+                " sizes=" + sizesSpec + " lifetime=" + (window == 0 ? "immediate" : "window:" + window) +
+                (leakBytesPerSec == 0 ? "" : " leak=" + MemoryAllocator.humanReadableByteCount(leakBytesPerSec) + "/s") +
+                " fill=" + fill;
+        }
+    }
+
+    private final List<Phase> phases;
+
+    private AllocationWorkload(List<Phase> phases) {
+        this.phases = Collections.unmodifiableList(phases);
+    }
+
+    List<Phase> getPhases() {
+        return phases;
+    }
+
+    /**
+     * @param specOrFile a spec file's path, or the spec itself with phases separated by ';'
+     */
+    public static AllocationWorkload parse(String specOrFile) throws IOException {
+        final Path path = Paths.get(specOrFile);
+        final List<String> lines = Files.isRegularFile(path)
+            ? Files.readAllLines(path, StandardCharsets.UTF_8)
+            : Arrays.asList(specOrFile.split(";"));
+
+        final List<Phase> phases = new ArrayList<>();
+        for (String line : lines) {
+            final int comment = line.indexOf('#');
+            if (comment >= 0)
+                line = line.substring(0, comment);
+            line = line.trim();
+            if (!line.isEmpty())
+                phases.add(parsePhase(line, phases.size() + 1));
+        }
+        if (phases.isEmpty())
+            throw new IllegalArgumentException("no phases in workload: " + specOrFile);
+        return new AllocationWorkload(phases);
+    }
+
+    private static Phase parsePhase(String line, int number) {
+        final Map<String, String> values = new LinkedHashMap<>();
+        for (final String pair : line.split("\\s+")) {
+            final int equals = pair.indexOf('=');
+            if (equals <= 0)
+                throw new IllegalArgumentException("expected key=value, got '" + pair + "' in phase " + number);
+            if (values.put(pair.substring(0, equals), pair.substring(equals + 1)) != null)
+                throw new IllegalArgumentException("duplicate key '" + pair.substring(0, equals) + "' in phase " + number);
+        }
+
+        final String name = values.getOrDefault("name", "phase" + number);
+        final int threads = Integer.parseInt(
+            values.getOrDefault("threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+        final long durationNanos = parseDurationNanos(values.getOrDefault("duration", "10s"));
+        final String rate = values.getOrDefault("rate", "unlimited");
+        final double bytesPerSec = rate.equals("unlimited") ? 0 : parseRate(rate);
+        final String sizesSpec = values.getOrDefault("sizes", "fixed:1k");
+        final SizeDistribution sizes = parseSizes(sizesSpec);
+        final int window = parseLifetime(values.getOrDefault("lifetime", "immediate"));
+        final double leakBytesPerSec = values.containsKey("leak") ? parseRate(values.get("leak")) : 0;
+        final String fill = values.getOrDefault("fill", "sequential");
+
+        values.keySet().removeAll(Arrays.asList(
+            "name", "threads", "duration", "rate", "sizes", "lifetime", "leak", "fill"));
+        if (!values.isEmpty())
+            throw new IllegalArgumentException("unknown keys " + values.keySet() + " in phase " + number);
+        if (threads < 1)
+            throw new IllegalArgumentException("threads must be positive in phase " + number);
+        if (!fill.equals("zero") && !fill.equals("sequential") && !fill.equals("random"))
+            throw new IllegalArgumentException("unknown fill '" + fill + "' in phase " + number);
+
+        return new Phase(name, threads, durationNanos, bytesPerSec, sizes, sizesSpec, window, leakBytesPerSec, fill);
+    }
+
+    private static int parseLifetime(String lifetime) {
+        if (lifetime.equals("immediate"))
+            return 0;
+        if (lifetime.startsWith("window:")) {
+            final int window = (int) parseSize(lifetime.substring("window:".length()));
+            if (window < 1)
+                throw new IllegalArgumentException("window must be positive: " + lifetime);
+            return window;
+        }
+        throw new IllegalArgumentException("unknown lifetime: " + lifetime);
+    }
+
+    static SizeDistribution parseSizes(String spec) {
+        final List<SizeDistribution> distributions = new ArrayList<>();
+        final List<Double> weights = new ArrayList<>();
+        for (String part : spec.split(",")) {
+            double weight = 1;
+            final int star = part.indexOf('*');
+            if (star >= 0) {
+                weight = Double.parseDouble(part.substring(0, star));
+                part = part.substring(star + 1);
+            }
+            if (!(weight > 0))
+                throw new IllegalArgumentException("weights must be positive: " + spec);
+            distributions.add(parseDistribution(part));
+            weights.add(weight);
+        }
+        if (distributions.size() == 1)
+            return distributions.get(0);
+
+        final double total = weights.stream().mapToDouble(Double::doubleValue).sum();
+        final double[] cumulative = new double[weights.size()];
+        double sum = 0;
+        for (int i = 0; i < cumulative.length; i++) {
+            sum += weights.get(i) / total;
+            cumulative[i] = sum;
+        }
+        final SizeDistribution[] choices = distributions.toArray(new SizeDistribution[0]);
+        return random -> {
+            final double u = random.nextDouble();
+            for (int i = 0; i < cumulative.length - 1; i++) {
+                if (u < cumulative[i])
+                    return choices[i].next(random);
+            }
+            return choices[choices.length - 1].next(random);
+        };
+    }
+
+    private static SizeDistribution parseDistribution(String spec) {
+        final String[] parts = spec.split(":");
+        switch (parts[0]) {
+            case "fixed": {
+                final int size = checkedSize(parseSize(parts[1]));
+                return random -> size;
+            }
+            case "uniform": {
+                final int min = checkedSize(parseSize(parts[1]));
+                final int max = checkedSize(parseSize(parts[2]));
+                if (max < min)
+                    throw new IllegalArgumentException("uniform max below min: " + spec);
+                return random -> min + random.nextInt(max - min + 1);
+            }
+            case "lognormal": {
+                final double logMedian = Math.log(parseSize(parts[1]));
+                final double sigma = Double.parseDouble(parts[2]);
+                return random -> {
+                    // Box-Muller; SplittableRandom has no nextGaussian
+                    final double gaussian = Math.sqrt(-2 * Math.log(1 - random.nextDouble()))
+                        * Math.cos(2 * Math.PI * random.nextDouble());
+                    return (int) Math.max(1, Math.min(Integer.MAX_VALUE - 8, Math.exp(logMedian + sigma * gaussian)));
+                };
+            }
+            case "humongous": {
+                final long regionBytes = g1RegionBytes();
+                final double regions = parts.length > 1 ? Double.parseDouble(parts[1]) : 2;
+                final int min = checkedSize(regionBytes / 2);
+                final int max = Math.max(min, checkedSize((long) (regions * regionBytes)));
+                return random -> min + random.nextInt(max - min + 1);
+            }
+            default:
+                throw new IllegalArgumentException("unknown size distribution: " + spec);
+        }
+    }
+
+    /**
+     * @return G1's region size, or G1's default for the heap size if the JVM won't say (e.g. it's not running G1)
+     */
+    private static long g1RegionBytes() {
+        try {
+            final com.sun.management.HotSpotDiagnosticMXBean hotspot =
+                ManagementFactory.getPlatformMXBean(com.sun.management.HotSpotDiagnosticMXBean.class);
+            final long regionBytes = Long.parseLong(hotspot.getVMOption("G1HeapRegionSize").getValue());
+            if (regionBytes > 0)
+                return regionBytes;
+        } catch (final RuntimeException e) {
+            // fall through to the default
+        }
+        // G1 aims for 2048 regions, each a power of two between 1 and 32MB
+        final long target = Runtime.getRuntime().maxMemory() / 2048;
+        return Math.max(1L << 20, Math.min(32L << 20, Long.highestOneBit(Math.max(1, target))));
+    }
+
+    private static int checkedSize(long size) {
+        if (size < 0 || size > Integer.MAX_VALUE - 8)
+            throw new IllegalArgumentException("not a valid array size: " + size);
+        return (int) size;
+    }
+
+    static long parseSize(String size) {
+        final String lower = size.toLowerCase(Locale.ROOT);
+        final char unit = lower.charAt(lower.length() - 1);
+        final int shift = unit == 'k' ? 10 : unit == 'm' ? 20 : unit == 'g' ? 30 : 0;
+        final String number = shift == 0 ? lower : lower.substring(0, lower.length() - 1);
+        return (long) (Double.parseDouble(number) * (1L << shift));
+    }
+
+    static double parseRate(String rate) {
+        final String lower = rate.toLowerCase(Locale.ROOT);
+        if (!lower.endsWith("b/s"))
+            throw new IllegalArgumentException("expected a rate like 200MB/s: " + rate);
+        return parseSize(lower.substring(0, lower.length() - "b/s".length()));
+    }
+
+    static long parseDurationNanos(String duration) {
+        final String lower = duration.toLowerCase(Locale.ROOT);
+        if (lower.endsWith("ms"))
+            return (long) (Double.parseDouble(lower.substring(0, lower.length() - 2)) * 1_000_000);
+        final char unit = lower.charAt(lower.length() - 1);
+        final double number = Double.parseDouble(lower.substring(0, lower.length() - 1));
+        switch (unit) {
+            case 's': return (long) (number * 1_000_000_000L);
+            case 'm': return (long) (number * 60_000_000_000L);
+            case 'h': return (long) (number * 3_600_000_000_000L);
+            default:  throw new IllegalArgumentException("expected a duration like 30s: " + duration);
+        }
+    }
+}
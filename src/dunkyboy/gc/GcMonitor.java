@@ -0,0 +1,155 @@
+package dunkyboy.gc;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.GcInfo;
+import dunkyboy.util.LatencyHistogram;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Listens for the JVM's GC notifications and records every collection's duration, overall and by collector action and
+ * cause (e.g. "end of minor GC (Allocation Failure)"), plus each memory pool's occupancy after the latest collection.
+ *
+ * Durations come from {@link GcInfo#getDuration()}, which is whole millis (as are GcInfo's start and end times, so
+ * there's nothing finer to be had from these notifications) and is the collection's elapsed time - for a
+ * stop-the-world collector that's the pause, but for a concurrent one it's the whole cycle, most of which runs
+ * alongside the application. So they're collection durations, not pauses, and anything printing them should say so
+ * ({@link #DURATION_NOTE}). They're recorded in nanos, like the other {@link LatencyHistogram}s in the project.
+ */
+public class GcMonitor implements AutoCloseable {
+
+    /**
+     * For the header of anything that prints these durations.
+     */
+    public static final String DURATION_NOTE =
+        "GC times are collection durations at millisecond granularity, not pauses (for concurrent collectors they " +
+        "cover the whole cycle)";
+
+    /**
+     * A pool's usage as of the end of the last collection that touched it.
+     */
+    public static final class PoolOccupancy {
+        public final long usedBytes;
+        public final long committedBytes;
+        public final long maxBytes;  // -1 if undefined
+
+        PoolOccupancy(MemoryUsage usage) {
+            this.usedBytes = usage.getUsed();
+            this.committedBytes = usage.getCommitted();
+            this.maxBytes = usage.getMax();
+        }
+    }
+
+    private final LatencyHistogram durationNanos = new LatencyHistogram();
+    private final LatencyHistogram seriesDurationNanos = new LatencyHistogram();
+    private final ConcurrentMap<String, LatencyHistogram> durationNanosByCause = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, PoolOccupancy> occupancyAfterGc = new ConcurrentHashMap<>();
+    private final AtomicLong collectionCount = new AtomicLong();
+    private final AtomicLong totalDurationNanos = new AtomicLong();
+
+    private final Map<NotificationEmitter, NotificationListener> listeners = new LinkedHashMap<>();
+
+    public GcMonitor() {
+        for (final GarbageCollectorMXBean gcMxBean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (!(gcMxBean instanceof NotificationEmitter))
+                continue;
+
+            final NotificationListener listener = this::handleNotification;
+            ((NotificationEmitter) gcMxBean).addNotificationListener(listener, null, null);
+            listeners.put((NotificationEmitter) gcMxBean, listener);
+        }
+    }
+
+    private void handleNotification(Notification notification, Object handback) {
+        if (!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION))
+            return;
+
+        final GarbageCollectionNotificationInfo info =
+            GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+        final GcInfo gcInfo = info.getGcInfo();
+
+        final long durationNanos = gcInfo.getDuration() * 1_000_000;
+        this.durationNanos.recordValue(durationNanos);
+        seriesDurationNanos.recordValue(durationNanos);
+        durationNanosByCause
+            .computeIfAbsent(info.getGcAction() + " (" + info.getGcCause() + ")", cause -> new LatencyHistogram())
+            .recordValue(durationNanos);
+        collectionCount.incrementAndGet();
+        totalDurationNanos.addAndGet(durationNanos);
+
+        for (final Map.Entry<String, MemoryUsage> pool : gcInfo.getMemoryUsageAfterGc().entrySet())
+            occupancyAfterGc.put(pool.getKey(), new PoolOccupancy(pool.getValue()));
+    }
+
+    /**
+     * Every collection's duration, in nanos. Whoever is measuring the run can take
+     * {@link LatencyHistogram#intervalSnapshot()}s of it to window it; a {@link GcTimeSeries} doesn't touch it.
+     */
+    public LatencyHistogram getDurationNanos() {
+        return durationNanos;
+    }
+
+    /**
+     * The same durations again, for a {@link GcTimeSeries} to take its per-row interval snapshots of, so that it
+     * doesn't reset {@link #getDurationNanos()} under whoever is measuring the run.
+     */
+    LatencyHistogram getSeriesDurationNanos() {
+        return seriesDurationNanos;
+    }
+
+    /**
+     * @return collection durations in nanos by "action (cause)", for everything seen so far
+     */
+    public Map<String, LatencyHistogram> getDurationNanosByCause() {
+        return new TreeMap<>(durationNanosByCause);
+    }
+
+    /**
+     * @return each pool's occupancy after the latest collection, by pool name (empty until the first collection)
+     */
+    public Map<String, PoolOccupancy> getOccupancyAfterGc() {
+        return new TreeMap<>(occupancyAfterGc);
+    }
+
+    public long getCollectionCount() {
+        return collectionCount.get();
+    }
+
+    public long getTotalDurationNanos() {
+        return totalDurationNanos.get();
+    }
+
+    /**
+     * @return the names of every memory pool any collector manages, in a stable order
+     */
+    public static List<String> memoryPoolNames() {
+        final Set<String> names = new TreeSet<>();
+        for (final GarbageCollectorMXBean gcMxBean : ManagementFactory.getGarbageCollectorMXBeans())
+            names.addAll(Arrays.asList(gcMxBean.getMemoryPoolNames()));
+        return new ArrayList<>(names);
+    }
+
+    @Override
+    public void close() {
+        for (final Map.Entry<NotificationEmitter, NotificationListener> listener : listeners.entrySet()) {
+            try {
+                listener.getKey().removeNotificationListener(listener.getValue());
+            } catch (final ListenerNotFoundException e) {
+                // already gone, which is all we wanted
+            }
+        }
+        listeners.clear();
+    }
+}
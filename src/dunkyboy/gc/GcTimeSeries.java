@@ -0,0 +1,245 @@
+package dunkyboy.gc;
+
+import dunkyboy.util.JsonWriter;
+import dunkyboy.util.LatencyHistogram;
+
+import java.io.PrintStream;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import static java.text.NumberFormat.getNumberInstance;
+import static java.util.Locale.US;
+
+
+/**
+ * Prints a row of allocation and GC stats every interval, from a background thread, as human-readable text, CSV or
+ * JSON (one object per line), so runs with different collectors and heap sizes can be lined up against each other.
+ *
+ * Each row has the interval's build rate (from the workload's own counters) and heap allocation rate (from the JVM's
+ * per-thread allocated-bytes counters), heap and direct memory in use, the interval's collections and their
+ * durations, its allocation stalls, and every collector-managed pool's occupancy after the latest GC. GC durations are
+ * whole collections at millisecond granularity, not pauses (see {@link GcMonitor}), and the series starts with a line
+ * saying so - on stderr for CSV and JSON.
+ */
+public class GcTimeSeries implements AutoCloseable {
+
+    public enum Format { TEXT, CSV, JSON }
+
+    private static final com.sun.management.ThreadMXBean threadMxBean =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final GcMonitor gcMonitor;
+    private final LongSupplier arraysBuilt;
+    private final LongSupplier bytesBuilt;
+    private final LatencyHistogram stallNanos;
+    private final Format format;
+    private final PrintStream out;
+    private final List<String> poolNames = GcMonitor.memoryPoolNames();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "GcTimeSeries");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private long startNanos;
+    private long lastNanos;
+    private long lastBytesBuilt;
+    private long lastJvmAllocatedBytes;
+    private long lastCollectionCount;
+    private long lastTotalGcNanos;
+
+    /**
+     * @param stallNanos allocation stalls, recorded by the workload for this series alone, as each row takes an
+     *                   interval snapshot of (so resets) it
+     */
+    public GcTimeSeries(GcMonitor gcMonitor, LongSupplier arraysBuilt, LongSupplier bytesBuilt,
+                        LatencyHistogram stallNanos, Format format, PrintStream out) {
+        this.gcMonitor = gcMonitor;
+        this.arraysBuilt = arraysBuilt;
+        this.bytesBuilt = bytesBuilt;
+        this.stallNanos = stallNanos;
+        this.format = format;
+        this.out = out;
+
+        if (threadMxBean.isThreadAllocatedMemorySupported())
+            threadMxBean.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    public void start(long interval, TimeUnit unit) {
+        startNanos = lastNanos = System.nanoTime();
+        lastBytesBuilt = bytesBuilt.getAsLong();
+        lastJvmAllocatedBytes = jvmAllocatedBytes();
+        lastCollectionCount = gcMonitor.getCollectionCount();
+        lastTotalGcNanos = gcMonitor.getTotalDurationNanos();
+        stallNanos.intervalSnapshot();
+        gcMonitor.getSeriesDurationNanos().intervalSnapshot();
+
+        if (format == Format.TEXT) {
+            out.println(GcMonitor.DURATION_NOTE);
+        } else {
+            System.err.println(GcMonitor.DURATION_NOTE);  // with the rest of the preamble, so stdout is just data
+            if (format == Format.CSV)
+                out.println(csvHeader());
+        }
+        scheduler.scheduleAtFixedRate(this::report, interval, interval, unit);
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    private void report() {
+        final long nowNanos = System.nanoTime();
+        final double intervalSecs = (nowNanos - lastNanos) / 1_000_000_000.0;
+        final double elapsedSecs = (nowNanos - startNanos) / 1_000_000_000.0;
+
+        final long arrays = arraysBuilt.getAsLong();
+        final long bytes = bytesBuilt.getAsLong();
+        final long jvmAllocatedBytes = jvmAllocatedBytes();
+        final long collections = gcMonitor.getCollectionCount();
+        final long totalGcNanos = gcMonitor.getTotalDurationNanos();
+        final LatencyHistogram gcDurations = gcMonitor.getSeriesDurationNanos().intervalSnapshot();
+        final LatencyHistogram stalls = stallNanos.intervalSnapshot();
+        final MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        final Map<String, GcMonitor.PoolOccupancy> occupancy = gcMonitor.getOccupancyAfterGc();
+
+        final Row row = new Row();
+        row.epochMillis = System.currentTimeMillis();
+        row.elapsedSecs = elapsedSecs;
+        row.arraysBuilt = arrays;
+        row.bytesBuilt = bytes;
+        row.buildBytesPerSec = (bytes - lastBytesBuilt) / intervalSecs;
+        row.allocatedBytesPerSec = (jvmAllocatedBytes - lastJvmAllocatedBytes) / intervalSecs;
+        row.heapUsedBytes = heap.getUsed();
+        row.heapCommittedBytes = heap.getCommitted();
+        row.directUsedBytes = directMemoryUsed();
+        row.collections = collections - lastCollectionCount;
+        row.gcMillis = (totalGcNanos - lastTotalGcNanos) / 1_000_000.0;
+        row.maxGcMillis = gcDurations.getMax() / 1_000_000.0;
+        row.stalls = stalls.getTotalCount();
+        row.maxStallMillis = stalls.getMax() / 1_000_000.0;
+
+        lastNanos = nowNanos;
+        lastBytesBuilt = bytes;
+        lastJvmAllocatedBytes = jvmAllocatedBytes;
+        lastCollectionCount = collections;
+        lastTotalGcNanos = totalGcNanos;
+
+        switch (format) {
+            case TEXT: out.println(text(row)); break;
+            case CSV:  out.println(csv(row, occupancy)); break;
+            case JSON: out.println(json(row, occupancy)); break;
+        }
+    }
+
+    private static final class Row {
+        long epochMillis;
+        double elapsedSecs;
+        long arraysBuilt;
+        long bytesBuilt;
+        double buildBytesPerSec;
+        double allocatedBytesPerSec;
+        long heapUsedBytes;
+        long heapCommittedBytes;
+        long directUsedBytes;
+        long collections;
+        double gcMillis;     // total collection duration
+        double maxGcMillis;  // longest collection
+        long stalls;
+        double maxStallMillis;
+    }
+
+    private static String text(Row row) {
+        return "arrays built: "   + getNumberInstance(US).format(row.arraysBuilt) + ", " +
+                "elapsed: "    + (long) row.elapsedSecs + " secs, " +
+                "built: "      + MemoryAllocator.humanReadableByteCount(row.bytesBuilt) + ", " +
+                "heap: "       + MemoryAllocator.humanReadableByteCount(row.heapUsedBytes) + " / " +
+                                 MemoryAllocator.humanReadableByteCount(row.heapCommittedBytes) + ", " +
+                "direct: "     + MemoryAllocator.humanReadableByteCount(row.directUsedBytes) + ", " +
+                "throughput: " + MemoryAllocator.humanReadableByteCount(row.buildBytesPerSec) + " / sec, " +
+                "alloc rate: " + MemoryAllocator.humanReadableByteCount(row.allocatedBytesPerSec) + " / sec, " +
+                "gcs: "        + row.collections + String.format(" (%.0f ms, longest %.0f ms), ", row.gcMillis, row.maxGcMillis) +
+                "stalls: "     + row.stalls + String.format(" (max %.1f ms)", row.maxStallMillis);
+    }
+
+    private String csvHeader() {
+        final StringBuilder header = new StringBuilder(
+            "epochMillis,elapsedSecs,arraysBuilt,bytesBuilt,buildBytesPerSec,allocatedBytesPerSec," +
+            "heapUsedBytes,heapCommittedBytes,directUsedBytes,collections,gcMillis,maxGcMillis," +
+            "stalls,maxStallMillis");
+        for (final String pool : poolNames)
+            header.append(",\"").append(pool.replace("\"", "\"\"")).append(" usedAfterGc\"");
+        return header.toString();
+    }
+
+    private String csv(Row row, Map<String, GcMonitor.PoolOccupancy> occupancy) {
+        final StringBuilder line = new StringBuilder(String.format(US,
+            "%d,%.3f,%d,%d,%.1f,%.1f,%d,%d,%d,%d,%.3f,%.3f,%d,%.3f",
+            row.epochMillis, row.elapsedSecs, row.arraysBuilt, row.bytesBuilt, row.buildBytesPerSec,
+            row.allocatedBytesPerSec, row.heapUsedBytes, row.heapCommittedBytes, row.directUsedBytes,
+            row.collections, row.gcMillis, row.maxGcMillis, row.stalls, row.maxStallMillis));
+        for (final String pool : poolNames) {
+            final GcMonitor.PoolOccupancy pooled = occupancy.get(pool);
+            line.append(',');
+            if (pooled != null)
+                line.append(pooled.usedBytes);
+        }
+        return line.toString();
+    }
+
+    private String json(Row row, Map<String, GcMonitor.PoolOccupancy> occupancy) {
+        final JsonWriter json = new JsonWriter().beginObject()
+            .name("epochMillis").value(row.epochMillis)
+            .name("elapsedSecs").value(row.elapsedSecs)
+            .name("arraysBuilt").value(row.arraysBuilt)
+            .name("bytesBuilt").value(row.bytesBuilt)
+            .name("buildBytesPerSec").value(row.buildBytesPerSec)
+            .name("allocatedBytesPerSec").value(row.allocatedBytesPerSec)
+            .name("heapUsedBytes").value(row.heapUsedBytes)
+            .name("heapCommittedBytes").value(row.heapCommittedBytes)
+            .name("directUsedBytes").value(row.directUsedBytes)
+            .name("collections").value(row.collections)
+            .name("gcMillis").value(row.gcMillis)
+            .name("maxGcMillis").value(row.maxGcMillis)
+            .name("stalls").value(row.stalls)
+            .name("maxStallMillis").value(row.maxStallMillis)
+            .name("poolsAfterGc").beginObject();
+        for (final Map.Entry<String, GcMonitor.PoolOccupancy> pool : occupancy.entrySet()) {
+            json.name(pool.getKey()).beginObject()
+                .name("usedBytes").value(pool.getValue().usedBytes)
+                .name("committedBytes").value(pool.getValue().committedBytes)
+                .name("maxBytes").value(pool.getValue().maxBytes)
+                .endObject();
+        }
+        return json.endObject().endObject().toString();
+    }
+
+    /**
+     * @return heap bytes allocated by all live threads so far, or 0 if the JVM can't say
+     */
+    private static long jvmAllocatedBytes() {
+        if (!threadMxBean.isThreadAllocatedMemoryEnabled())
+            return 0;
+        long total = 0;
+        for (final long allocated : threadMxBean.getThreadAllocatedBytes(threadMxBean.getAllThreadIds()))
+            total += Math.max(0, allocated);  // -1 for threads that died in between
+        return total;
+    }
+
+    private static long directMemoryUsed() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct"))
+                return pool.getMemoryUsed();
+        }
+        return 0;
+    }
+}
@@ -1,34 +1,119 @@
 package dunkyboy.gc;
 
+import dunkyboy.util.LatencyHistogram;
+
+import java.io.PrintStream;
 import java.lang.management.GarbageCollectorMXBean;
 import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
 
-import static java.text.NumberFormat.getNumberInstance;
-import static java.util.Locale.US;
-import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
 
 /**
+ * Builds byte arrays flat out on every core and reports a time series of throughput, allocation rate, heap and pool
+ * occupancy, GC durations and allocation stalls once a second (see {@link GcTimeSeries}).
+ *
+ * With no args it runs the original rolling-buffer experiment. Otherwise the args are
+ * {@code builder [arraySize] [retainedPerThread] [text|csv|json]}, where the builder is "gc" (a new array every time),
+ * "pooledLocal" or "pooledShared" (recycled arrays, from per-thread or shared pools) or "offHeap" (recycled direct
+ * buffers), and each thread holds on to its last retainedPerThread buffers before handing them back. The builder can
+ * also be an object graph - "linked", "map" or "records", optionally with "+churn" (see {@link ObjectGraphBuilders}) -
+ * in which case the size is the node count per graph. Optional warmup and measure durations (e.g. 10s, 1m) follow.
+ *
+ * Runs warm up for at least the warm-up duration and until throughput is steady, measure, then stop and print a
+ * summary (see {@link AllocationRun}) - as a JSON object after the time series for json, so sweeps over heap sizes
+ * and collectors can collect one line per run.
+ *
  * Created by Duncan on 6/29/16.
  */
 public class MemoryAllocator {
 
-    public static void main(String[] args) {
-//        new MemoryAllocator( new SequentialByteArrayBuilder(), 5000 ).start();
-        new MemoryAllocator(
-            () ->  // one per thread
-                new NonThreadsafeRollingBufferAccumulatingByteArrayBuilder(
-                    new SequentialByteArrayBuilder(),
-                    1000000
-                )
-            ,
-            50
-        ).start();
+    public static void main(String[] args) throws InterruptedException {
+        GcTimeSeries.Format format = GcTimeSeries.Format.TEXT;
+        final AllocationRun.Config config;
+        try {
+            if (args.length > 3)
+                format = GcTimeSeries.Format.valueOf(args[3].toUpperCase(Locale.ROOT));
+            config = new AllocationRun.Config(
+                AllocationWorkload.parseDurationNanos(args.length > 4 ? args[4] : "10s"),
+                AllocationWorkload.parseDurationNanos(args.length > 5 ? args[5] : "30s"));
+        } catch (final IllegalArgumentException e) {
+            System.out.println("Expected args: builder [arraySize] [retainedPerThread] [text|csv|json] [warmup] " +
+                "[measure] - " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        final MemoryAllocator allocator;
+        if (args.length > 0) {
+            final String builder = args[0];
+            final int arraySize = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+            final int retained = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+            final int maxPooled = Math.max(1_024, 2 * retained);
+
+            switch (builder) {
+                case "gc":
+                    allocator = new MemoryAllocator(SequentialByteArrayBuilder::new, arraySize, retained);
+                    break;
+                case "pooledLocal":
+                    final ThreadLocalPooledByteArrayBuilder localPool =  // thread-local pools, so share the builder
+                        new ThreadLocalPooledByteArrayBuilder(SequentialByteArrayBuilder::new, maxPooled);
+                    allocator = new MemoryAllocator(() -> localPool, arraySize, retained);
+                    break;
+                case "pooledShared":
+                    final SharedPooledByteArrayBuilder sharedPool =
+                        new SharedPooledByteArrayBuilder(SequentialByteArrayBuilder::new, maxPooled);
+                    allocator = new MemoryAllocator(() -> sharedPool, arraySize, retained);
+                    break;
+                case "offHeap":
+                    final DirectByteBufferBuilder direct =
+                        new DirectByteBufferBuilder(SequentialByteArrayBuilder::new, 1 << 20, maxPooled);
+                    allocator = new MemoryAllocator(() -> direct, arraySize, retained);
+                    break;
+                case "linked":
+                case "map":
+                case "records":
+                case "linked+churn":
+                case "map+churn":
+                case "records+churn":
+                    allocator = new MemoryAllocator(ObjectGraphBuilders.factoryFor(builder), builder, arraySize,
+                        retained);
+                    break;
+                default:
+                    System.out.println("Expected args: [gc|pooledLocal|pooledShared|offHeap|linked|map|records" +
+                        "|linked+churn|map+churn|records+churn] [arraySize or graphNodes (int)] " +
+                        "[retainedPerThread (int)] [text|csv|json] [warmup] [measure]");
+                    System.exit(1);
+                    return;
+            }
+        } else {
+//            allocator = new MemoryAllocator( new SequentialByteArrayBuilder(), 5000 );
+            allocator = new MemoryAllocator(
+                () ->  // one per thread
+                    new NonThreadsafeRollingBufferAccumulatingByteArrayBuilder(
+                        new SequentialByteArrayBuilder(),
+                        1000000
+                    )
+                ,
+                50
+            );
+        }
+
+        final AllocationRun.Summary summary = new AllocationRun(allocator, config).run(format);
+        switch (format) {
+            case TEXT: System.out.println(); summary.print(System.out); break;
+            case CSV:  System.err.println(); summary.print(System.err); break;
+            case JSON: System.out.println(summary.toJson()); break;
+        }
     }
 
     @FunctionalInterface
@@ -39,12 +124,68 @@ public class MemoryAllocator {
     public interface ByteArrayBuilder {
         byte[] build(int size);
         long getCount();
+
+        /**
+         * Hands back an array from {@link #build} that the caller's finished with, for builders that recycle them.
+         */
+        default void release(byte[] bytes) {
+        }
+    }
+
+    @FunctionalInterface
+    public interface BufferBuilderFactory {
+        ByteBufferBuilder getBuilder();
+    }
+
+    /**
+     * Off-heap counterpart of {@link ByteArrayBuilder}: the returned buffer's position is 0 and its limit the size.
+     */
+    public interface ByteBufferBuilder {
+        ByteBuffer build(int size);
+        long getCount();
+
+        default void release(ByteBuffer buffer) {
+        }
+    }
+
+    @FunctionalInterface
+    public interface GraphBuilderFactory {
+        ObjectGraphBuilder getBuilder();
+    }
+
+    /**
+     * Builds graphs of small objects rather than flat arrays (see {@link ObjectGraphBuilders}).
+     */
+    public interface ObjectGraphBuilder {
+        /**
+         * @return the graph's root
+         */
+        Object build(int nodes);
+        long getCount();
+
+        /**
+         * @return roughly how much heap a graph of {@code nodes} nodes takes
+         */
+        long estimatedBytes(int nodes);
     }
 
     static abstract class AbstractByteArrayBuilder implements ByteArrayBuilder {
 
         protected final AtomicLong count = new AtomicLong();
 
+        @Override
+        public byte[] build(final int size) {
+            byte[] bytes = new byte[size];
+            fill(bytes);
+            count.incrementAndGet();
+            return bytes;
+        }
+
+        /**
+         * Writes this builder's contents over the whole of {@code bytes}, wherever it came from.
+         */
+        abstract void fill(byte[] bytes);
+
         @Override
         public long getCount() {
             return count.get();
@@ -60,12 +201,9 @@ public class MemoryAllocator {
         }
 
         @Override
-        public byte[] build(final int size) {
-            byte[] bytes = new byte[size];
+        void fill(final byte[] bytes) {
             for (int i = 0; i < bytes.length; i++)
                 bytes[i] = theByte;
-            count.incrementAndGet();
-            return bytes;
         }
     }
 
@@ -74,12 +212,9 @@ public class MemoryAllocator {
         private byte theByte = 0;
 
         @Override
-        public byte[] build(final int size) {
-            byte[] bytes = new byte[size];
+        void fill(final byte[] bytes) {
             for (int i = 0; i < bytes.length; i++)
                 bytes[i] = theByte++;
-            count.incrementAndGet();
-            return bytes;
         }
     }
 
@@ -88,11 +223,8 @@ public class MemoryAllocator {
         private final Random rand = new Random();
 
         @Override
-        public byte[] build(final int size) {
-            byte[] bytes = new byte[size];
+        void fill(final byte[] bytes) {
             rand.nextBytes(bytes);
-            count.incrementAndGet();
-            return bytes;
         }
     }
 
@@ -119,15 +251,25 @@ public class MemoryAllocator {
         }
     }
 
+    /**
+     * Keeps the last maxSize arrays built, by any thread, in a ring: each build claims the next slot with a ticket and
+     * swaps its array in, releasing whatever it displaces. Every step is O(1) and lock-free, and the retained set is
+     * never more than maxSize arrays, however many threads are building.
+     */
     static class RollingBufferAccumulatingByteArrayBuilder implements ByteArrayBuilder {
 
-        private final Queue<byte[]> byteArrays = new ConcurrentLinkedQueue<>();  // basically a concurrent LinkedList
+        private final AtomicReferenceArray<byte[]> byteArrays;
+
+        private final AtomicLong nextSlot = new AtomicLong();
 
         private final ByteArrayBuilder builder;
 
         private final int maxSize;
 
         RollingBufferAccumulatingByteArrayBuilder(ByteArrayBuilder builder, int maxSize) {
+            if (maxSize < 1)
+                throw new IllegalArgumentException("max size must be positive: " + maxSize);
+            this.byteArrays = new AtomicReferenceArray<>(maxSize);
             this.builder = builder;
             this.maxSize = maxSize;
         }
@@ -135,10 +277,11 @@ public class MemoryAllocator {
         @Override
         public byte[] build(final int size) {
             byte[] bytes = builder.build(size);
-            byteArrays.add(bytes);
 
-            while (byteArrays.size() > maxSize)
-                byteArrays.remove();  // racy, but just needs to be "close enough", so don't care
+            int slot = (int) (nextSlot.getAndIncrement() % maxSize);
+            byte[] evicted = byteArrays.getAndSet(slot, bytes);
+            if (evicted != null)
+                builder.release(evicted);
 
             return bytes;
         }
@@ -149,26 +292,34 @@ public class MemoryAllocator {
         }
     }
 
+    /**
+     * Single-threaded version of {@link RollingBufferAccumulatingByteArrayBuilder}: a plain array ring.
+     */
     static class NonThreadsafeRollingBufferAccumulatingByteArrayBuilder implements ByteArrayBuilder {
 
-        private final List<byte[]> byteArrays = new LinkedList<>();
+        private final byte[][] byteArrays;
 
-        private final ByteArrayBuilder builder;
+        private int nextSlot = 0;
 
-        private final int maxSize;
+        private final ByteArrayBuilder builder;
 
         NonThreadsafeRollingBufferAccumulatingByteArrayBuilder(ByteArrayBuilder builder, int maxSize) {
+            if (maxSize < 1)
+                throw new IllegalArgumentException("max size must be positive: " + maxSize);
+            this.byteArrays = new byte[maxSize][];
             this.builder = builder;
-            this.maxSize = maxSize;
         }
 
         @Override
         public byte[] build(final int size) {
             byte[] bytes = builder.build(size);
-            byteArrays.add(bytes);
 
-            while (byteArrays.size() > maxSize)
-                byteArrays.remove(0);
+            byte[] evicted = byteArrays[nextSlot];
+            byteArrays[nextSlot] = bytes;
+            if (++nextSlot == byteArrays.length)
+                nextSlot = 0;
+            if (evicted != null)
+                builder.release(evicted);
 
             return bytes;
         }
@@ -179,87 +330,722 @@ public class MemoryAllocator {
         }
     }
 
+    /**
+     * Free lists keyed by exact size, for one thread. A handful of sizes is the norm, so a linear scan beats hashing
+     * (and doesn't box the size on every lookup).
+     */
+    static final class FreeLists<T> {
+
+        private final int maxPerSize;
+        private int[] sizes = new int[4];
+        private final List<ArrayDeque<T>> lists = new ArrayList<>();
+
+        FreeLists(int maxPerSize) {
+            this.maxPerSize = maxPerSize;
+        }
+
+        T poll(int size) {
+            ArrayDeque<T> list = find(size);
+            return list == null ? null : list.pollLast();
+        }
+
+        /**
+         * @return false if that size's list was already full
+         */
+        boolean offer(int size, T item) {
+            ArrayDeque<T> list = find(size);
+            if (list == null) {
+                if (lists.size() == sizes.length)
+                    sizes = Arrays.copyOf(sizes, 2 * sizes.length);
+                sizes[lists.size()] = size;
+                list = new ArrayDeque<>(maxPerSize);
+                lists.add(list);
+            }
+            if (list.size() >= maxPerSize)
+                return false;
+            list.addLast(item);
+            return true;
+        }
+
+        private ArrayDeque<T> find(int size) {
+            for (int i = 0; i < lists.size(); i++) {
+                if (sizes[i] == size)
+                    return lists.get(i);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * A builder that recycles what it builds, shared by all the allocating threads.
+     */
+    interface Pool {
+
+        /**
+         * @return how many buffers have been built, recycled or not
+         */
+        long getCount();
 
-    private final ArrayBuilderFactory byteArrayBuilders;
+        /**
+         * @return how many buffers were actually allocated, rather than recycled
+         */
+        long getAllocatedCount();
+
+        /**
+         * @return how many bytes of off-heap memory have been reserved; 0 for heap pools
+         */
+        default long getReservedBytes() {
+            return 0;
+        }
+    }
+
+    /**
+     * One thread's counts for a {@link Pool}. Like {@link ThreadCounters}, only that thread writes them, with lazy
+     * stores, so counting never contends; the pool sums over every thread's when asked.
+     */
+    @SuppressWarnings("unused")
+    static final class BuildCounters {
+
+        private static final AtomicLongFieldUpdater<BuildCounters> BUILT =
+            AtomicLongFieldUpdater.newUpdater(BuildCounters.class, "built");
+
+        private static final AtomicLongFieldUpdater<BuildCounters> ALLOCATED =
+            AtomicLongFieldUpdater.newUpdater(BuildCounters.class, "allocated");
+
+        private static final AtomicLongFieldUpdater<BuildCounters> RESERVED_BYTES =
+            AtomicLongFieldUpdater.newUpdater(BuildCounters.class, "reservedBytes");
+
+        long p0, p1, p2, p3, p4, p5, p6;
+
+        volatile long built;
+        volatile long allocated;
+        volatile long reservedBytes;
+
+        long q0, q1, q2, q3, q4, q5, q6;
+
+        /**
+         * @return a new thread's counters, already added to {@code all}
+         */
+        static BuildCounters register(Queue<BuildCounters> all) {
+            final BuildCounters counters = new BuildCounters();
+            all.add(counters);
+            return counters;
+        }
+
+        void built() {
+            BUILT.lazySet(this, built + 1);
+        }
+
+        void allocated() {
+            ALLOCATED.lazySet(this, allocated + 1);
+        }
+
+        void reserved(long bytes) {
+            RESERVED_BYTES.lazySet(this, reservedBytes + bytes);
+        }
+
+        static long built(Queue<BuildCounters> all) {
+            long built = 0;
+            for (final BuildCounters counters : all)
+                built += counters.built;
+            return built;
+        }
+
+        static long allocated(Queue<BuildCounters> all) {
+            long allocated = 0;
+            for (final BuildCounters counters : all)
+                allocated += counters.allocated;
+            return allocated;
+        }
+
+        static long reservedBytes(Queue<BuildCounters> all) {
+            long reservedBytes = 0;
+            for (final BuildCounters counters : all)
+                reservedBytes += counters.reservedBytes;
+            return reservedBytes;
+        }
+    }
+
+    /**
+     * Recycles released arrays through free lists private to each thread, and counts in per-thread counters, so
+     * neither side of the recycling is ever contended. Arrays released on a different thread to the one that built
+     * them just join that thread's lists. Each thread fills arrays with its own filler from {@code fillers}.
+     */
+    static class ThreadLocalPooledByteArrayBuilder implements ByteArrayBuilder, Pool {
+
+        private final class ThreadState {
+            final FreeLists<byte[]> freeLists = new FreeLists<>(maxPooledPerSize);
+            final BuildCounters counters = BuildCounters.register(allCounters);
+            final AbstractByteArrayBuilder filler = fillers.get();
+        }
+
+        private final Supplier<? extends AbstractByteArrayBuilder> fillers;
+
+        private final int maxPooledPerSize;
+
+        private final Queue<BuildCounters> allCounters = new ConcurrentLinkedQueue<>();
+
+        private final ThreadLocal<ThreadState> threadStates = ThreadLocal.withInitial(ThreadState::new);
+
+        ThreadLocalPooledByteArrayBuilder(Supplier<? extends AbstractByteArrayBuilder> fillers, int maxPooledPerSize) {
+            this.fillers = fillers;
+            this.maxPooledPerSize = maxPooledPerSize;
+        }
+
+        @Override
+        public byte[] build(final int size) {
+            final ThreadState state = threadStates.get();
+            byte[] bytes = state.freeLists.poll(size);
+            if (bytes == null) {
+                bytes = new byte[size];
+                state.counters.allocated();
+            }
+            state.filler.fill(bytes);
+            state.counters.built();
+            return bytes;
+        }
+
+        @Override
+        public void release(final byte[] bytes) {
+            threadStates.get().freeLists.offer(bytes.length, bytes);  // if it's full, the GC can have it
+        }
+
+        @Override
+        public long getCount() {
+            return BuildCounters.built(allCounters);
+        }
+
+        @Override
+        public long getAllocatedCount() {
+            return BuildCounters.allocated(allCounters);
+        }
+    }
+
+    /**
+     * Recycles released arrays through a pool shared by all threads, with one size class per array length. Each size
+     * class is split into lock stripes picked by thread, so threads mostly recycle through their own stripe, and only
+     * go looking in the others when it's empty. Counts, and the filler from {@code fillers}, are kept per thread.
+     */
+    static class SharedPooledByteArrayBuilder implements ByteArrayBuilder, Pool {
+
+        private static final class Stripe {
+            private final byte[][] arrays;
+            private int size = 0;
+
+            Stripe(int capacity) {
+                arrays = new byte[capacity][];
+            }
+
+            synchronized byte[] pop() {
+                if (size == 0)
+                    return null;
+                byte[] bytes = arrays[--size];
+                arrays[size] = null;
+                return bytes;
+            }
+
+            synchronized boolean push(byte[] bytes) {
+                if (size == arrays.length)
+                    return false;
+                arrays[size++] = bytes;
+                return true;
+            }
+        }
+
+        private static final class SizeClass {
+            final int size;
+            final Stripe[] stripes;
+
+            SizeClass(int size, int stripeCount, int capacityPerStripe) {
+                this.size = size;
+                this.stripes = new Stripe[stripeCount];
+                for (int i = 0; i < stripeCount; i++)
+                    stripes[i] = new Stripe(capacityPerStripe);
+            }
+        }
+
+        private final Supplier<? extends AbstractByteArrayBuilder> fillers;
+
+        private final int stripeCount;
+
+        private final int capacityPerStripe;
+
+        private final ConcurrentMap<Integer, SizeClass> sizeClasses = new ConcurrentHashMap<>();
+
+        private final class ThreadState {
+            SizeClass lastSizeClass;  // saves boxing the size for the common case
+            final BuildCounters counters = BuildCounters.register(allCounters);
+            final AbstractByteArrayBuilder filler = fillers.get();
+        }
+
+        private final Queue<BuildCounters> allCounters = new ConcurrentLinkedQueue<>();
+
+        private final ThreadLocal<ThreadState> threadStates = ThreadLocal.withInitial(ThreadState::new);
+
+        SharedPooledByteArrayBuilder(Supplier<? extends AbstractByteArrayBuilder> fillers, int maxPooledPerSize) {
+            this.fillers = fillers;
+            this.stripeCount = Integer.highestOneBit(2 * Runtime.getRuntime().availableProcessors() - 1);
+            this.capacityPerStripe = Math.max(1, maxPooledPerSize / stripeCount);
+        }
+
+        @Override
+        public byte[] build(final int size) {
+            final ThreadState state = threadStates.get();
+            final Stripe[] stripes = sizeClass(state, size).stripes;
+            final int home = stripeIndex();
+
+            byte[] bytes = null;
+            for (int i = 0; i < stripes.length && bytes == null; i++)
+                bytes = stripes[(home + i) & (stripes.length - 1)].pop();
+
+            if (bytes == null) {
+                bytes = new byte[size];
+                state.counters.allocated();
+            }
+            state.filler.fill(bytes);
+            state.counters.built();
+            return bytes;
+        }
+
+        @Override
+        public void release(final byte[] bytes) {
+            // if it's full, the GC can have it
+            sizeClass(threadStates.get(), bytes.length).stripes[stripeIndex()].push(bytes);
+        }
+
+        @Override
+        public long getCount() {
+            return BuildCounters.built(allCounters);
+        }
+
+        @Override
+        public long getAllocatedCount() {
+            return BuildCounters.allocated(allCounters);
+        }
+
+        private SizeClass sizeClass(ThreadState state, int size) {
+            SizeClass sizeClass = state.lastSizeClass;
+            if (sizeClass == null || sizeClass.size != size) {
+                sizeClass = sizeClasses.computeIfAbsent(size, s -> new SizeClass(s, stripeCount, capacityPerStripe));
+                state.lastSizeClass = sizeClass;
+            }
+            return sizeClass;
+        }
+
+        private int stripeIndex() {
+            return (int) Thread.currentThread().getId() & (stripeCount - 1);
+        }
+    }
+
+    /**
+     * Off-heap buffers, carved out of large direct slabs (so there's no per-buffer Cleaner or native allocation) and
+     * recycled through free lists private to each thread. Slabs are never freed, so off-heap usage stays at its high
+     * water mark. Each thread's filler, from {@code fillers}, writes into a heap scratch array that's then copied into
+     * the buffer. Counts, including the bytes reserved, are kept per thread.
+     */
+    static class DirectByteBufferBuilder implements ByteBufferBuilder, Pool {
+
+        private final class ThreadState {
+            final FreeLists<ByteBuffer> freeLists = new FreeLists<>(maxPooledPerSize);
+            final BuildCounters counters = BuildCounters.register(allCounters);
+            final AbstractByteArrayBuilder filler = fillers.get();
+            ByteBuffer slab = ByteBuffer.allocateDirect(0);
+            byte[] scratch = new byte[0];
+        }
+
+        private final Supplier<? extends AbstractByteArrayBuilder> fillers;
+
+        private final int slabBytes;
+
+        private final int maxPooledPerSize;
+
+        private final Queue<BuildCounters> allCounters = new ConcurrentLinkedQueue<>();
+
+        private final ThreadLocal<ThreadState> threadStates = ThreadLocal.withInitial(ThreadState::new);
+
+        DirectByteBufferBuilder(Supplier<? extends AbstractByteArrayBuilder> fillers, int slabBytes,
+                                int maxPooledPerSize) {
+            this.fillers = fillers;
+            this.slabBytes = slabBytes;
+            this.maxPooledPerSize = maxPooledPerSize;
+        }
+
+        @Override
+        public ByteBuffer build(final int size) {
+            final ThreadState state = threadStates.get();
+
+            ByteBuffer buffer = state.freeLists.poll(size);
+            if (buffer == null) {
+                buffer = carve(state, size);
+                state.counters.allocated();
+            }
+
+            if (state.scratch.length != size)
+                state.scratch = new byte[size];
+            state.filler.fill(state.scratch);
+
+            buffer.clear();
+            buffer.put(state.scratch);
+            buffer.flip();
+            state.counters.built();
+            return buffer;
+        }
+
+        private ByteBuffer carve(ThreadState state, int size) {
+            if (size > slabBytes) {
+                state.counters.reserved(size);
+                return ByteBuffer.allocateDirect(size);
+            }
+            if (state.slab.remaining() < size) {
+                state.slab = ByteBuffer.allocateDirect(slabBytes);
+                state.counters.reserved(slabBytes);
+            }
+
+            final ByteBuffer slab = state.slab;
+            slab.limit(slab.position() + size);
+            final ByteBuffer buffer = slab.slice();
+            slab.position(slab.limit());
+            slab.limit(slab.capacity());
+            return buffer;
+        }
+
+        @Override
+        public void release(final ByteBuffer buffer) {
+            threadStates.get().freeLists.offer(buffer.capacity(), buffer);  // if it's full it's lost to its slab
+        }
+
+        @Override
+        public long getCount() {
+            return BuildCounters.built(allCounters);
+        }
+
+        @Override
+        public long getAllocatedCount() {
+            return BuildCounters.allocated(allCounters);
+        }
+
+        @Override
+        public long getReservedBytes() {
+            return BuildCounters.reservedBytes(allCounters);
+        }
+    }
+
+    /**
+     * One thread's driver for whichever kind of builder is being run: builds a buffer, keeps it for a while if
+     * there's a retention window (releasing whatever falls out of it), and otherwise releases it straight away.
+     */
+    private static abstract class Allocator<T> {
+
+        private final ArrayDeque<T> retained = new ArrayDeque<>();
+
+        private final int maxRetained;
+
+        Allocator(int maxRetained) {
+            this.maxRetained = maxRetained;
+        }
+
+        /**
+         * @return how many bytes were built
+         */
+        final long allocate(int size) {
+            final T buffer = build(size);
+            final long bytes = sizeOf(buffer, size);
+            if (maxRetained > 0) {
+                retained.addLast(buffer);
+                if (retained.size() > maxRetained)
+                    release(retained.pollFirst());
+            } else {
+                release(buffer);
+            }
+            return bytes;
+        }
+
+        abstract T build(int size);
+
+        abstract void release(T buffer);
+
+        abstract long sizeOf(T buffer, int size);
+
+        /**
+         * @return the builder this drives, which may be shared with other threads' allocators
+         */
+        abstract Object getBuilder();
+    }
+
+    @FunctionalInterface
+    private interface AllocatorFactory {
+        Allocator<?> getAllocator();
+    }
+
+    private static AllocatorFactory arrayAllocators(ArrayBuilderFactory builders, int maxRetained) {
+        return () -> {
+            final ByteArrayBuilder builder = builders.getBuilder();
+            return new Allocator<byte[]>(maxRetained) {
+                @Override byte[] build(int size)                { return builder.build(size); }
+                @Override void release(byte[] bytes)            { builder.release(bytes); }
+                @Override long sizeOf(byte[] bytes, int size)   { return bytes.length; }
+                @Override Object getBuilder()                   { return builder; }
+            };
+        };
+    }
+
+    private static AllocatorFactory bufferAllocators(BufferBuilderFactory builders, int maxRetained) {
+        return () -> {
+            final ByteBufferBuilder builder = builders.getBuilder();
+            return new Allocator<ByteBuffer>(maxRetained) {
+                @Override ByteBuffer build(int size)            { return builder.build(size); }
+                @Override void release(ByteBuffer buf)          { builder.release(buf); }
+                @Override long sizeOf(ByteBuffer buf, int size) { return buf.remaining(); }
+                @Override Object getBuilder()                   { return builder; }
+            };
+        };
+    }
+
+    private static AllocatorFactory graphAllocators(GraphBuilderFactory builders, int maxRetained) {
+        return () -> {
+            final ObjectGraphBuilder builder = builders.getBuilder();
+            return new Allocator<Object>(maxRetained) {
+                @Override Object build(int size)                { return builder.build(size); }
+                @Override void release(Object graph)            { }
+                @Override long sizeOf(Object graph, int size)   { return builder.estimatedBytes(size); }
+                @Override Object getBuilder()                   { return builder; }
+            };
+        };
+    }
+
+
+    private final AllocatorFactory allocators;
+
+    private final String builderName;
 
     private final int byteArraySize;
 
-    private final AtomicLong bytesAllocated = new AtomicLong();
+    private final Queue<ThreadCounters> threadCounters = new ConcurrentLinkedQueue<>();
+
+    private final Set<Pool> pools = ConcurrentHashMap.newKeySet();  // distinct pooled builders the threads are using
+
+    private static final long STALL_THRESHOLD_NANOS = 1_000_000;
+
+    private final LatencyHistogram stallNanos = new LatencyHistogram();
+
+    private final LatencyHistogram seriesStallNanos = new LatencyHistogram();  // the time series resets its own
+
+    private final int threadCount = Runtime.getRuntime().availableProcessors();
+
+    private final List<Thread> threads = new ArrayList<>();
+
+    private volatile boolean running = false;
+
+    private GcMonitor gcMonitor;
+
+    private GcTimeSeries timeSeries;
 
     public MemoryAllocator(ArrayBuilderFactory byteArrayBuilders, int byteArraySize) {
-        this.byteArrayBuilders = byteArrayBuilders;
+        this(byteArrayBuilders, byteArraySize, 0);
+    }
+
+    /**
+     * @param retainedPerThread how many of its most recent arrays each thread holds before releasing them
+     */
+    public MemoryAllocator(ArrayBuilderFactory byteArrayBuilders, int byteArraySize, int retainedPerThread) {
+        this(arrayAllocators(byteArrayBuilders, retainedPerThread),
+            byteArrayBuilders.getBuilder().getClass().getSimpleName(), byteArraySize);
+    }
+
+    public MemoryAllocator(BufferBuilderFactory byteBufferBuilders, int byteArraySize, int retainedPerThread) {
+        this(bufferAllocators(byteBufferBuilders, retainedPerThread),
+            byteBufferBuilders.getBuilder().getClass().getSimpleName(), byteArraySize);
+    }
+
+    /**
+     * @param builderName what to call the graph builders in the output, e.g. their {@link ObjectGraphBuilders} spec
+     * @param graphNodes  how many nodes each graph has; the byte counts reported are estimates
+     */
+    public MemoryAllocator(GraphBuilderFactory graphBuilders, String builderName, int graphNodes,
+                           int retainedPerThread) {
+        this(graphAllocators(graphBuilders, retainedPerThread), builderName, graphNodes);
+    }
+
+    private MemoryAllocator(AllocatorFactory allocators, String builderName, int byteArraySize) {
+        this.allocators = allocators;
+        this.builderName = builderName;
         this.byteArraySize = byteArraySize;
     }
 
     public void start() {
+        start(GcTimeSeries.Format.TEXT);
+    }
 
-        final int threadCount = Runtime.getRuntime().availableProcessors();
-
-        System.out.println( "Generating byte arrays in " + threadCount + " threads" +
-            "\n  builder:    " + byteArrayBuilders.getBuilder().getClass().getSimpleName() +
+    /**
+     * Starts the allocating threads, plus a reporter printing a row of stats in {@code format} once a second, and
+     * returns; they run until {@link #stop()}. For CSV and JSON, the preamble goes to stderr so stdout is just the time
+     * series. See {@link AllocationRun} for a run that stops by itself.
+     */
+    public synchronized void start(GcTimeSeries.Format format) {
+        if (running)
+            throw new IllegalStateException("already running");
+        running = true;
+
+        final PrintStream preamble = format == GcTimeSeries.Format.TEXT ? System.out : System.err;
+        preamble.println( "Generating byte arrays in " + threadCount + " threads" +
+            "\n  builder:    " + builderName +
             "\n  array size: " + byteArraySize +
             "\n  heap max:   " + humanReadableByteCount(Runtime.getRuntime().maxMemory())
         );
 
-        printGcInfo();
-        System.out.println();
-
+        printGcInfo(preamble);
+        preamble.println();
 
-        final long startTimeNanos = System.nanoTime();
-
-        final Lock printLock = new ReentrantLock();  // only one thread should print
+        gcMonitor = new GcMonitor();
+        timeSeries = new GcTimeSeries(gcMonitor, this::getArraysBuilt, this::getBytesBuilt, seriesStallNanos, format,
+            System.out);
+        timeSeries.start(1, SECONDS);
 
+        threads.clear();
         for (int i = 0; i < threadCount; i++) {
-            new Thread("AllocatorThread-"+i) {
+            final Thread thread = new Thread("AllocatorThread-"+i) {
                 @Override
                 public void run() {
 
-                    final boolean isPrinting = printLock.tryLock();
-                    System.out.println("[" + Thread.currentThread().getName() + "] initialized - I am " + (isPrinting?"":"not ") + "printing");
+                    final Allocator<?> allocator = allocators.getAllocator();  // one builder per thread
+                    if (allocator.getBuilder() instanceof Pool)
+                        pools.add((Pool) allocator.getBuilder());
+
+                    final ThreadCounters counters = new ThreadCounters();  // and one set of counters
+                    threadCounters.add(counters);
+
+                    long lastNanos = System.nanoTime();
+                    while (running) {
+                        long bytes = allocator.allocate(byteArraySize);
+                        counters.add(bytes);
+
+                        // a build that took this long was almost certainly held up by the collector
+                        long nowNanos = System.nanoTime();
+                        if (nowNanos - lastNanos > STALL_THRESHOLD_NANOS) {
+                            stallNanos.recordValue(nowNanos - lastNanos);
+                            seriesStallNanos.recordValue(nowNanos - lastNanos);
+                        }
+                        lastNanos = nowNanos;
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+    }
+
+    /**
+     * Asks the allocating threads to finish their current build, waits for them to, and stops reporting.
+     */
+    public synchronized void stop() throws InterruptedException {
+        if (!running)
+            return;
+        running = false;
+        for (final Thread thread : threads)
+            thread.join();
+        timeSeries.close();
+        gcMonitor.close();
+    }
 
-                    if (isPrinting)
-                        System.out.println();
+    String getBuilderName() {
+        return builderName;
+    }
 
-                    final ByteArrayBuilder builder = byteArrayBuilders.getBuilder();  // one builder per thread
+    int getByteArraySize() {
+        return byteArraySize;
+    }
 
-                    long currentSecond = 0;
-                    while (true) {
-                        byte[] bytes = builder.build(byteArraySize);
-                        long currentBytesAllocated = bytesAllocated.addAndGet(bytes.length);
+    int getThreadCount() {
+        return threadCount;
+    }
 
-                        long arrayCount = builder.getCount();
+    GcMonitor getGcMonitor() {
+        return gcMonitor;
+    }
 
-                        long elapsedNanos = System.nanoTime() - startTimeNanos;
-                        long elapsedSecs = NANOSECONDS.toSeconds(elapsedNanos);
-                        if (elapsedSecs > currentSecond) {
-                            currentSecond = elapsedSecs;
+    LatencyHistogram getStallNanos() {
+        return stallNanos;
+    }
 
-                            if (isPrinting) {
-                                double elapsedSecondsExact = (double) (elapsedNanos / 1000000) / 1000.0d;
-                                double throughputBytesPerSec = currentBytesAllocated / elapsedSecondsExact;
+    boolean isPooled() {
+        return !pools.isEmpty();
+    }
 
-                                System.out.println(
-                                    "arrays built: "   + getNumberInstance(US).format(arrayCount) + ", " +
-                                        "elapsed: "    + elapsedSecs + " secs, " +
-                                        "allocated: "  + humanReadableByteCount(currentBytesAllocated) + ", " +
-                                        "heap: "       + humanReadableByteCount(Runtime.getRuntime().totalMemory()) + ", " +
-                                        "throughput: " + humanReadableByteCount(throughputBytesPerSec) + " / sec"
-                                );
-                            }
-                        }
-                    }
-                }
-            }.start();
+    /**
+     * @return how many builds the pooled builders have done, recycled or not
+     */
+    long getPoolBuilds() {
+        long builds = 0;
+        for (final Pool pool : pools)
+            builds += pool.getCount();
+        return builds;
+    }
+
+    /**
+     * @return how many of {@link #getPoolBuilds()} had to allocate a new buffer
+     */
+    long getPoolAllocations() {
+        long allocations = 0;
+        for (final Pool pool : pools)
+            allocations += pool.getAllocatedCount();
+        return allocations;
+    }
+
+    long getOffHeapReservedBytes() {
+        long bytes = 0;
+        for (final Pool pool : pools)
+            bytes += pool.getReservedBytes();
+        return bytes;
+    }
+
+    long getArraysBuilt() {
+        long arrays = 0;
+        for (ThreadCounters counters : threadCounters)
+            arrays += counters.arrays;
+        return arrays;
+    }
+
+    long getBytesBuilt() {
+        long bytes = 0;
+        for (ThreadCounters counters : threadCounters)
+            bytes += counters.bytes;
+        return bytes;
+    }
+
+    /**
+     * One allocating thread's totals. Only that thread writes them, with ordered (lazy) stores, so counting costs the
+     * allocation loop no fences or contended cache lines; the reporter sums over all the threads' counters.
+     */
+    @SuppressWarnings("unused")
+    private static final class ThreadCounters {
+
+        private static final AtomicLongFieldUpdater<ThreadCounters> ARRAYS =
+            AtomicLongFieldUpdater.newUpdater(ThreadCounters.class, "arrays");
+
+        private static final AtomicLongFieldUpdater<ThreadCounters> BYTES =
+            AtomicLongFieldUpdater.newUpdater(ThreadCounters.class, "bytes");
+
+        // pad both sides so neighbouring threads' counters don't false-share a cache line
+        long p0, p1, p2, p3, p4, p5, p6;
+
+        volatile long arrays;
+        volatile long bytes;
+
+        long q0, q1, q2, q3, q4, q5, q6;
+
+        void add(long size) {
+            ARRAYS.lazySet(this, arrays + 1);
+            BYTES.lazySet(this, bytes + size);
         }
     }
 
-    private static void printGcInfo() {
-        System.out.println("  garbage collectors:");
+    private static void printGcInfo(PrintStream out) {
+        out.println("  garbage collectors:");
         for ( GarbageCollectorMXBean gcMxBean : ManagementFactory.getGarbageCollectorMXBeans() )
-            System.out.println( "    " + gcMxBean.getName() + ": " + Arrays.toString(gcMxBean.getMemoryPoolNames()) );
+            out.println( "    " + gcMxBean.getName() + ": " + Arrays.toString(gcMxBean.getMemoryPoolNames()) );
     }
 
-    private static String humanReadableByteCount(long bytes) {
+    static String humanReadableByteCount(long bytes) {
         int unit = 1000;
         if (bytes < unit) return bytes + " B";
         int exp = (int) (Math.log(bytes) / Math.log(unit));
@@ -267,7 +1053,7 @@ public class MemoryAllocator {
         return String.format("%.1f %sB", bytes / Math.pow(unit, exp), pre);
     }
 
-    private static String humanReadableByteCount(double bytes) {
+    static String humanReadableByteCount(double bytes) {
         int unit = 1000;
         if (bytes < unit) return bytes + " B";
         int exp = (int) (Math.log(bytes) / Math.log(unit));
@@ -0,0 +1,234 @@
+package dunkyboy.gc;
+
+import dunkyboy.gc.MemoryAllocator.GraphBuilderFactory;
+import dunkyboy.gc.MemoryAllocator.ObjectGraphBuilder;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * {@link ObjectGraphBuilder}s: pointer-heavy garbage for {@link MemoryAllocator}, since flat byte arrays are the
+ * easiest thing there is for a collector to trace. A graph's size is its node count.
+ *
+ * Byte estimates assume a 64-bit JVM with compressed oops (12-byte headers, 4-byte references, 8-byte alignment).
+ */
+public final class ObjectGraphBuilders {
+
+    private ObjectGraphBuilders() {
+    }
+
+    abstract static class AbstractObjectGraphBuilder implements ObjectGraphBuilder {
+
+        protected final AtomicLong count = new AtomicLong();
+
+        protected final SplittableRandom random = new SplittableRandom();
+
+        @Override
+        public long getCount() {
+            return count.get();
+        }
+    }
+
+    static final class ListNode {
+        ListNode next;
+        long value;
+    }
+
+    /**
+     * A singly linked list: the longest possible chain of dependent loads for the marker.
+     */
+    static class LinkedListGraphBuilder extends AbstractObjectGraphBuilder {
+
+        @Override
+        public Object build(final int nodes) {
+            ListNode head = null;
+            for (int i = 0; i < nodes; i++) {
+                ListNode node = new ListNode();
+                node.value = i;
+                node.next = head;
+                head = node;
+            }
+            count.incrementAndGet();
+            return head;
+        }
+
+        @Override
+        public long estimatedBytes(final int nodes) {
+            return 24L * nodes;  // header, long, reference
+        }
+    }
+
+    static final class Record {
+        final long id;
+        final String name;
+        final Long score;
+        final int[] tags;
+        Record parent;
+        Record sibling;
+
+        Record(long id, String name, Long score, int[] tags) {
+            this.id = id;
+            this.name = name;
+            this.score = score;
+            this.tags = tags;
+        }
+    }
+
+    private static Record newRecord(SplittableRandom random, long id) {
+        return new Record(id, "record-" + id, (long) random.nextInt(), new int[] { random.nextInt(), random.nextInt() });
+    }
+
+    // Record (12 + 8 + 5 * 4 = 40) + String (24) and its byte[] or char[] (~32) + Long (16) + int[2] (24)
+    private static final long RECORD_BYTES = 40 + 56 + 16 + 24;
+
+    /**
+     * A wide map of id to small record, like a cache or an index: every entry is a HashMap.Node, a boxed key and a
+     * record with several references of its own.
+     */
+    static class FanOutMapGraphBuilder extends AbstractObjectGraphBuilder {
+
+        @Override
+        public Object build(final int nodes) {
+            Map<Long, Record> map = new HashMap<>(nodes * 4 / 3 + 1);
+            for (long id = 0; id < nodes; id++)
+                map.put(id, newRecord(random, id));
+            count.incrementAndGet();
+            return map;
+        }
+
+        @Override
+        public long estimatedBytes(final int nodes) {
+            // HashMap.Node (32) + Long key (16) + table slot (~5.3 at 0.75 load) + record
+            return (32 + 16 + 6 + RECORD_BYTES) * nodes;
+        }
+    }
+
+    /**
+     * Records that each point at a random earlier parent and sibling: a tangled graph with many references per
+     * object, and no locality for the marker to exploit.
+     */
+    static class RecordGraphBuilder extends AbstractObjectGraphBuilder {
+
+        @Override
+        public Object build(final int nodes) {
+            Record[] records = new Record[nodes];
+            for (int i = 0; i < nodes; i++) {
+                Record record = newRecord(random, i);
+                if (i > 0) {
+                    record.parent = records[random.nextInt(i)];
+                    record.sibling = records[random.nextInt(i)];
+                }
+                records[i] = record;
+            }
+            count.incrementAndGet();
+            return records;
+        }
+
+        @Override
+        public long estimatedBytes(final int nodes) {
+            return (RECORD_BYTES + 4) * nodes + 16;  // plus the array holding them
+        }
+    }
+
+    static final class OldNode {
+        ListNode young;
+    }
+
+    /**
+     * @return {@code count} separately allocated old objects, for {@link OldToYoungChurnGraphBuilder}s to share
+     */
+    static OldNode[] newOldSet(int count) {
+        final OldNode[] oldNodes = new OldNode[count];
+        for (int i = 0; i < count; i++)
+            oldNodes[i] = new OldNode();
+        return oldNodes;
+    }
+
+    /**
+     * Wraps another graph builder with a long-lived "old" set of objects, and after each build points random old
+     * objects at new young ones - the old-to-young pointers that dirty cards and fill remembered sets, which a young
+     * collection then has to scan. The old objects are separate allocations, so the stores land all over the old
+     * generation once they've been promoted.
+     *
+     * The old set can be shared by every thread's builder: concurrent stores into it just race, and whichever young
+     * node lands last is the one kept alive, which is all the churn needs.
+     *
+     * Each store points at a new list node holding the graph's first node's value rather than at the graph itself, so
+     * what the churn keeps alive is bounded by the old object count, not by how big the graphs are. storesPerBuild
+     * can be fractional: 0.1 stores a reference after one build in ten, on average.
+     */
+    static class OldToYoungChurnGraphBuilder implements ObjectGraphBuilder {
+
+        private final ObjectGraphBuilder builder;
+
+        private final OldNode[] oldNodes;
+
+        private final double storesPerBuild;
+
+        private final SplittableRandom random = new SplittableRandom();
+
+        OldToYoungChurnGraphBuilder(ObjectGraphBuilder builder, OldNode[] oldNodes, double storesPerBuild) {
+            this.builder = builder;
+            this.oldNodes = oldNodes;
+            this.storesPerBuild = storesPerBuild;
+        }
+
+        @Override
+        public Object build(final int nodes) {
+            Object graph = builder.build(nodes);
+
+            double stores = storesPerBuild;
+            while (stores >= 1 || (stores > 0 && random.nextDouble() < stores)) {
+                ListNode young = new ListNode();
+                young.value = System.identityHashCode(graph);
+                oldNodes[random.nextInt(oldNodes.length)].young = young;
+                stores -= 1;
+            }
+            return graph;
+        }
+
+        @Override
+        public long estimatedBytes(final int nodes) {
+            return builder.estimatedBytes(nodes) + (long) Math.ceil(storesPerBuild) * 24;
+        }
+
+        @Override
+        public long getCount() {
+            return builder.getCount();
+        }
+    }
+
+    /**
+     * @param spec "linked", "map" or "records", optionally followed by "+churn" for
+     *             {@link OldToYoungChurnGraphBuilder} with 8 stores per build into a million old objects - one set,
+     *             made here and shared by every builder the factory makes
+     * @return a factory making a new builder per call, e.g. one per thread
+     */
+    static GraphBuilderFactory factoryFor(String spec) {
+        final boolean churn = spec.endsWith("+churn");
+        final String graph = churn ? spec.substring(0, spec.length() - "+churn".length()) : spec;
+
+        final GraphBuilderFactory builders;
+        switch (graph) {
+            case "linked":  builders = LinkedListGraphBuilder::new; break;
+            case "map":     builders = FanOutMapGraphBuilder::new; break;
+            case "records": builders = RecordGraphBuilder::new; break;
+            default:        throw new IllegalArgumentException("unknown object graph: " + spec);
+        }
+        if (!churn)
+            return builders;
+
+        final OldNode[] oldNodes = newOldSet(1_000_000);
+        return () -> new OldToYoungChurnGraphBuilder(builders.getBuilder(), oldNodes, 8);
+    }
+
+    /**
+     * @return one builder for {@code spec}, as for {@link #factoryFor}
+     */
+    static ObjectGraphBuilder forName(String spec) {
+        return factoryFor(spec).getBuilder();
+    }
+}
@@ -0,0 +1,302 @@
+package dunkyboy.gc;
+
+import dunkyboy.gc.AllocationWorkload.Phase;
+import dunkyboy.util.LatencyHistogram;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * Runs an {@link AllocationWorkload}'s phases back to back, each on its own set of threads, and prints a summary of
+ * each phase as it finishes (and a table of them all at the end): what was built against the target rate, the GCs
+ * and their durations, allocation stalls, and the heap left behind.
+ *
+ * <pre>
+ *   java -Xmx2g -XX:+UseG1GC dunkyboy.gc.WorkloadRunner workload.txt
+ *   java dunkyboy.gc.WorkloadRunner 'duration=30s rate=100MB/s; duration=1m sizes=0.99*fixed:256,0.01*humongous'
+ * </pre>
+ */
+public class WorkloadRunner {
+
+    private static final long STALL_THRESHOLD_NANOS = 1_000_000;
+
+    /**
+     * Allocations at least this big calibrate how fast the heap zeroes new arrays (see {@link PhaseThread}); smaller
+     * ones are dominated by fixed costs.
+     */
+    private static final int CALIBRATION_MIN_BYTES = 64 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        final AllocationWorkload workload;
+        try {
+            workload = AllocationWorkload.parse(args[0]);
+        } catch (final Exception e) {
+            System.out.println("Expected args: workloadSpec (a file, or phases separated by ';') - " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        System.out.println("Starting workload at " + new Date() + ":");
+        for (final Phase phase : workload.getPhases())
+            System.out.println("  " + phase);
+        System.out.println("  heap max: " + MemoryAllocator.humanReadableByteCount(Runtime.getRuntime().maxMemory()));
+        System.out.println("  " + GcMonitor.DURATION_NOTE);
+
+        final List<PhaseResult> results = new WorkloadRunner().run(workload);
+
+        System.out.println();
+        System.out.println(GcMonitor.DURATION_NOTE + ":");
+        System.out.println(String.format("%-16s %8s %14s %12s %14s %6s %10s %10s %10s %8s %11s %10s %10s",
+            "phase", "secs", "arrays", "built", "rate /s", "gcs", "gc ms", "gc p99 ms", "gc max ms", "stalls",
+            "stall max", "heap", "leaked"));
+        for (final PhaseResult result : results) {
+            System.out.println(String.format("%-16s %8.1f %,14d %12s %14s %,6d %,10.0f %10.0f %10.0f %,8d %11.1f %10s %10s",
+                result.phase.name, result.elapsedSecs(), result.arrays,
+                MemoryAllocator.humanReadableByteCount(result.bytes),
+                MemoryAllocator.humanReadableByteCount(result.bytes / result.elapsedSecs()),
+                result.gcDurationNanos.getTotalCount(), result.totalGcNanos / 1_000_000.0,
+                result.gcDurationNanos.getValueAtPercentile(99) / 1_000_000.0,
+                result.gcDurationNanos.getMax() / 1_000_000.0,
+                result.stallNanos.getTotalCount(), result.stallNanos.getMax() / 1_000_000.0,
+                MemoryAllocator.humanReadableByteCount(result.heapUsedAfter),
+                MemoryAllocator.humanReadableByteCount(result.leakedBytesAfter)));
+        }
+    }
+
+    static final class PhaseResult {
+        final Phase phase;
+        final long elapsedNanos;
+        final long arrays;
+        final long bytes;
+        final LatencyHistogram gcDurationNanos;
+        final long totalGcNanos;
+        final LatencyHistogram stallNanos;
+        final long heapUsedAfter;
+        final long leakedBytesAfter;  // everything leaked so far, this phase and earlier ones
+        final Throwable failure;      // what stopped a thread early, if anything did
+
+        PhaseResult(Phase phase, long elapsedNanos, long arrays, long bytes, LatencyHistogram gcDurationNanos,
+                    long totalGcNanos, LatencyHistogram stallNanos, long heapUsedAfter, long leakedBytesAfter,
+                    Throwable failure) {
+            this.phase = phase;
+            this.elapsedNanos = elapsedNanos;
+            this.arrays = arrays;
+            this.bytes = bytes;
+            this.gcDurationNanos = gcDurationNanos;
+            this.totalGcNanos = totalGcNanos;
+            this.stallNanos = stallNanos;
+            this.heapUsedAfter = heapUsedAfter;
+            this.leakedBytesAfter = leakedBytesAfter;
+            this.failure = failure;
+        }
+
+        double elapsedSecs() {
+            return elapsedNanos / 1_000_000_000.0;
+        }
+    }
+
+    private final List<byte[]> leaked = new ArrayList<>();  // never released, by design
+
+    private long leakedBytes = 0;
+
+    List<PhaseResult> run(AllocationWorkload workload) throws InterruptedException {
+        final List<PhaseResult> results = new ArrayList<>();
+        try (GcMonitor gcMonitor = new GcMonitor()) {
+            for (final Phase phase : workload.getPhases()) {
+                System.out.println();
+                System.out.println("phase " + phase.name + " starting at " + new Date());
+
+                final PhaseResult result = runPhase(phase, gcMonitor);
+                results.add(result);
+
+                if (result.failure != null)
+                    System.out.println("  phase ended early: " + result.failure);
+
+                System.out.println(String.format("  built %,d arrays, %s in %.1f secs (%s / sec, target %s)",
+                    result.arrays, MemoryAllocator.humanReadableByteCount(result.bytes), result.elapsedSecs(),
+                    MemoryAllocator.humanReadableByteCount(result.bytes / result.elapsedSecs()),
+                    phase.bytesPerSec == 0 ? "unlimited" : MemoryAllocator.humanReadableByteCount(phase.bytesPerSec) + " / sec"));
+                System.out.println(String.format("  heap after: %s, leaked so far: %s",
+                    MemoryAllocator.humanReadableByteCount(result.heapUsedAfter),
+                    MemoryAllocator.humanReadableByteCount(result.leakedBytesAfter)));
+                System.out.println(String.format("  GC collection durations, ms-granular (%,.0f ms in total):",
+                    result.totalGcNanos / 1_000_000.0));
+                result.gcDurationNanos.printPercentiles(System.out, "ms", 1_000_000.0);
+                System.out.println("  allocation stalls over " + STALL_THRESHOLD_NANOS / 1_000_000 +
+                    " ms beyond zeroing time:");
+                result.stallNanos.printPercentiles(System.out, "ms", 1_000_000.0);
+            }
+        }
+        return results;
+    }
+
+    private PhaseResult runPhase(Phase phase, GcMonitor gcMonitor) throws InterruptedException {
+
+        final LatencyHistogram stallNanos = new LatencyHistogram();
+        final PhaseThread[] threads = new PhaseThread[phase.threads];
+        for (int t = 0; t < phase.threads; t++)
+            threads[t] = new PhaseThread(phase, t, stallNanos);
+
+        gcMonitor.getDurationNanos().intervalSnapshot();  // start the phase's GC durations from scratch
+        final long gcNanosBefore = gcMonitor.getTotalDurationNanos();
+
+        final long startNanos = System.nanoTime();
+        final long endNanos = startNanos + phase.durationNanos;
+        for (final PhaseThread thread : threads) {
+            thread.startNanos = startNanos;
+            thread.endNanos = endNanos;
+            thread.start();
+        }
+        PhaseThread.go(threads);
+        for (final PhaseThread thread : threads)
+            thread.join();
+        final long elapsedNanos = System.nanoTime() - startNanos;
+
+        long arrays = 0;
+        long bytes = 0;
+        Throwable failure = null;
+        for (final PhaseThread thread : threads) {
+            if (failure == null)
+                failure = thread.failure;
+            arrays += thread.arrays;
+            bytes += thread.bytes;
+            leaked.addAll(thread.leaked);
+            leakedBytes += thread.leakedBytes;
+        }
+
+        return new PhaseResult(phase, elapsedNanos, arrays, bytes, gcMonitor.getDurationNanos().intervalSnapshot(),
+            gcMonitor.getTotalDurationNanos() - gcNanosBefore, stallNanos,
+            ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed(), leakedBytes, failure);
+    }
+
+    /**
+     * One of a phase's allocating threads. Its share of the target rate and leak rate are the phase's divided by the
+     * thread count, and its share of the window is too, with the remainder spread one each over the first threads (so
+     * the phase keeps exactly {@code window} arrays live, and a thread may keep none). Its counts are only read once
+     * it's been joined.
+     *
+     * Only the allocation itself is timed for stalls, not the fill, and the time a new array of that size takes to
+     * zero is taken off first: that's the fastest nanos per byte this thread has seen for a big allocation. So a
+     * humongous or large lognormal array only counts as a stall when it took over a millisecond longer than its size
+     * explains.
+     */
+    private static final class PhaseThread extends Thread {
+
+        private final Phase phase;
+        private final LatencyHistogram stallNanos;
+        private final CountDownLatch ready = new CountDownLatch(1);
+        private final SplittableRandom random = new SplittableRandom();
+
+        long startNanos;
+        long endNanos;
+
+        long arrays = 0;
+        long bytes = 0;
+        final List<byte[]> leaked = new ArrayList<>();
+        long leakedBytes = 0;
+        Throwable failure = null;
+
+        private final int window;
+
+        private double zeroingNanosPerByte = Double.NaN;  // until the first big allocation
+
+        PhaseThread(Phase phase, int index, LatencyHistogram stallNanos) {
+            super(phase.name + "-" + index);
+            this.phase = phase;
+            this.stallNanos = stallNanos;
+            this.window = phase.window / phase.threads + (index < phase.window % phase.threads ? 1 : 0);
+        }
+
+        static void go(PhaseThread[] threads) {
+            for (final PhaseThread thread : threads)
+                thread.ready.countDown();
+        }
+
+        @Override
+        public void run() {
+            try {
+                ready.await();
+            } catch (final InterruptedException e) {
+                return;
+            }
+
+            try {
+                allocate();
+            } catch (final OutOfMemoryError | RuntimeException e) {
+                failure = e;  // the workload's too big for the heap, most likely; report it with the phase
+            }
+        }
+
+        private void allocate() {
+            final MemoryAllocator.AbstractByteArrayBuilder filler = fillerFor(phase);
+            final byte[][] live = new byte[window][];  // ring of the thread's last window arrays
+            int nextLive = 0;
+            final double bytesPerNano = phase.bytesPerSec / phase.threads / 1_000_000_000.0;
+            final double leakBytesPerNano = phase.leakBytesPerSec / phase.threads / 1_000_000_000.0;
+
+            long nowNanos = System.nanoTime();
+            while (nowNanos < endNanos) {
+                final int size = phase.sizes.next(random);
+
+                final long allocationStartNanos = System.nanoTime();
+                final byte[] array = new byte[size];
+                recordAllocation(size, System.nanoTime() - allocationStartNanos);
+
+                filler.fill(array);
+                if (window > 0) {
+                    live[nextLive] = array;
+                    if (++nextLive == window)
+                        nextLive = 0;
+                }
+                nowNanos = System.nanoTime();
+
+                arrays++;
+                bytes += size;
+                if (leakBytesPerNano > 0 && leakedBytes < (nowNanos - startNanos) * leakBytesPerNano) {
+                    leaked.add(array);
+                    leakedBytes += size;
+                }
+
+                if (bytesPerNano > 0) {
+                    // rate limit: sleep off any lead over the schedule, but never past the end of the phase
+                    final long dueNanos = startNanos + (long) (bytes / bytesPerNano);
+                    if (dueNanos - nowNanos > 50_000) {
+                        LockSupport.parkNanos(Math.min(dueNanos, endNanos) - nowNanos);
+                        nowNanos = System.nanoTime();
+                    }
+                }
+            }
+        }
+
+        private void recordAllocation(int size, long elapsedNanos) {
+            double expectedNanos = 0;
+            if (size >= CALIBRATION_MIN_BYTES) {
+                final double nanosPerByte = (double) elapsedNanos / size;
+                if (!(nanosPerByte >= zeroingNanosPerByte))  // true for NaN too
+                    zeroingNanosPerByte = nanosPerByte;
+                expectedNanos = zeroingNanosPerByte * size;
+            }
+
+            final long excessNanos = elapsedNanos - (long) expectedNanos;
+            if (excessNanos > STALL_THRESHOLD_NANOS)
+                stallNanos.recordValue(excessNanos);
+        }
+    }
+
+    /**
+     * @return one thread's filler for a phase's arrays
+     */
+    private static MemoryAllocator.AbstractByteArrayBuilder fillerFor(Phase phase) {
+        switch (phase.fill) {
+            case "zero":   return new MemoryAllocator.IdenticalByteArrayBuilder((byte) 0);
+            case "random": return new MemoryAllocator.RandomByteArrayBuilder();
+            default:       return new MemoryAllocator.SequentialByteArrayBuilder();
+        }
+    }
+}
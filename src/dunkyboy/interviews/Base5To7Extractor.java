@@ -0,0 +1,105 @@
+package dunkyboy.interviews;
+
+import java.util.function.IntSupplier;
+
+
+/**
+ * Turns rolls of a 5-sided die into rolls of a 7-sided one without wasting the source's entropy, for
+ * {@link GoogleRngQuestion}.
+ *
+ * The state is a number known only to be uniform in [0, range). Each source roll appends a base-5 digit to it
+ * (range *= 5); each output takes a base-7 digit off it (range /= 7) when it's below the largest multiple of 7 in the
+ * range. When it isn't, the excess (the number minus that multiple) is still uniform over what's left of the range,
+ * so it's kept rather than thrown away. With the range kept above 2^55, that happens less than once in 2^52 outputs,
+ * so the cost is within a hair of the log(7) / log(5) ~= 1.209 source rolls per output that entropy allows - against
+ * 3 * (5/4) * (8/7) ~= 4.29 for drawing three rejection-sampled bits at a time (5/4 rolls per bit, and 8/7 tries
+ * per output).
+ *
+ * Not thread-safe: give each thread its own.
+ */
+public class Base5To7Extractor implements IntSupplier {
+
+    /**
+     * Rolls the source until the range is at least this; 5 times it still fits in a long.
+     */
+    private static final long MIN_RANGE = 1L << 55;
+
+    private final IntSupplier randBetween1And5;
+
+    private long value = 0;
+    private long range = 1;
+
+    private long sourceCalls = 0;
+
+    /**
+     * @param randBetween1And5 the source, returning 1 to 5 inclusive
+     */
+    public Base5To7Extractor(IntSupplier randBetween1And5) {
+        this.randBetween1And5 = randBetween1And5;
+    }
+
+    /**
+     * @return a random int between 1 and 7, inclusive
+     */
+    @Override
+    public int getAsInt() {
+        while (true) {
+            while (range < MIN_RANGE) {
+                value = value * 5 + randBetween1And5.getAsInt() - 1;
+                range *= 5;
+                sourceCalls++;
+            }
+
+            final long quotient = range / 7;
+            final long limit = quotient * 7;
+            if (value < limit) {
+                final int digit = (int) (value % 7);
+                value /= 7;
+                range = quotient;
+                return digit + 1;
+            }
+            value -= limit;  // uniform in [0, range - limit): keep it and top it back up
+            range -= limit;
+        }
+    }
+
+    /**
+     * Fills {@code out} with random ints between 1 and 7, inclusive, keeping the state in locals for the whole batch.
+     */
+    public void fill(int[] out) {
+        long value = this.value;
+        long range = this.range;
+        long sourceCalls = this.sourceCalls;
+
+        for (int i = 0; i < out.length; ) {
+            while (range < MIN_RANGE) {
+                value = value * 5 + randBetween1And5.getAsInt() - 1;
+                range *= 5;
+                sourceCalls++;
+            }
+
+            final long quotient = range / 7;
+            final long limit = quotient * 7;
+            if (value < limit) {
+                final long next = value / 7;
+                out[i++] = (int) (value - next * 7) + 1;
+                value = next;
+                range = quotient;
+            } else {
+                value -= limit;
+                range -= limit;
+            }
+        }
+
+        this.value = value;
+        this.range = range;
+        this.sourceCalls = sourceCalls;
+    }
+
+    /**
+     * @return how many times the source has been called so far
+     */
+    public long getSourceCalls() {
+        return sourceCalls;
+    }
+}
@@ -1,32 +1,80 @@
 package dunkyboy.interviews;
 
-import org.apache.commons.collections4.Bag;
-import org.apache.commons.collections4.bag.HashBag;
-
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
 
 
 /**
  * Rumored Google interview question: Using only a function returning a random number between 1 and 5, implement a
  * function returning a random number between 1 and 7.
+ *
+ * The answer here draws three rejection-sampled bits at a time, which is easy to get right in an interview but
+ * throws most of the source's entropy away; {@link Base5To7Extractor} is the efficient version.
  */
 public class GoogleRngQuestion {
 
-    public static void main(String[] args) {
-        final Bag<Integer> distributions = new HashBag<>();
-        for (int i = 0; i < 10000; i++) {
-            final int rand = randBetween1And7();
-            distributions.add(rand);
+    /**
+     * Checks both answers (and the extractor's batch fill) for uniformity with {@link UniformityVerifier}, exiting
+     * with status 1 if any of them fails.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        final long samples;
+        final int threads;
+        final double significance;
+        try {
+            samples      = args.length > 0 ? Long.parseLong(args[0]) : 1_000_000_000L;
+            threads      = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+            significance = args.length > 2 ? Double.parseDouble(args[2]) : 0.001;
+        } catch (final Exception e) {
+            System.out.println("Expected args: [samples (long)], [threads (int)], [significance (double)]");
+            System.exit(1);
+            return;
         }
 
-        System.out.println("distributions: " + distributions);
+        boolean uniform = true;
+
+        System.out.println("randBetween1And7 (rejection):");
+        uniform &= check(() -> () -> randBetween1And7(GoogleRngQuestion::randBetween1And5), samples, threads,
+            significance);
+
+        System.out.println("\nBase5To7Extractor:");
+        uniform &= check(() -> new Base5To7Extractor(GoogleRngQuestion::randBetween1And5), samples, threads,
+            significance);
+
+        System.out.println("\nBase5To7Extractor.fill:");
+        uniform &= check(() -> {
+            final Base5To7Extractor extractor = new Base5To7Extractor(GoogleRngQuestion::randBetween1And5);
+            final int[] batch = new int[1_000];
+            final int[] next = { batch.length };
+            return () -> {
+                if (next[0] == batch.length) {
+                    extractor.fill(batch);
+                    next[0] = 0;
+                }
+                return batch[next[0]++];
+            };
+        }, samples, threads, significance);
+
+        if (!uniform)
+            System.exit(1);
+    }
+
+    private static boolean check(Supplier<? extends IntSupplier> generators, long samples, int threads,
+                                 double significance) throws InterruptedException {
+        final UniformityVerifier.Result result = UniformityVerifier.verify(generators, 1, 7, samples, threads);
+        result.print(System.out, significance);
+        return result.isUniform(significance);
     }
 
-    private static int randBetween1And7() {
+    /**
+     * @param randBetween1And5 the source, returning 1 to 5 inclusive
+     */
+    static int randBetween1And7(IntSupplier randBetween1And5) {
         while (true) {
-            final int bit0 = randBinary();
-            final int bit1 = randBinary();
-            final int bit2 = randBinary();
+            final int bit0 = randBinary(randBetween1And5);
+            final int bit1 = randBinary(randBetween1And5);
+            final int bit2 = randBinary(randBetween1And5);
 
             final int binary3Bits = (bit2 << 2) + (bit1 << 1) + bit0;
             if (binary3Bits != 7) {
@@ -35,11 +83,11 @@ public class GoogleRngQuestion {
         }
     }
 
-    private static int randBinary() {
+    private static int randBinary(IntSupplier randBetween1And5) {
         while (true) {
-            final int randBetween1And5 = randBetween1And5();
-            if (randBetween1And5 != 5) {
-                return randBetween1And5 % 2;
+            final int rand = randBetween1And5.getAsInt();
+            if (rand != 5) {
+                return rand % 2;
             }
         }
     }
@@ -49,7 +97,7 @@ public class GoogleRngQuestion {
      *
      * @return a random int between 1 and 5, inclusive
      */
-    private static int randBetween1And5() {
+    static int randBetween1And5() {
         return ThreadLocalRandom.current().nextInt(5) + 1;
     }
 }
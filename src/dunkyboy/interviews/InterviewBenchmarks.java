@@ -0,0 +1,67 @@
+package dunkyboy.interviews;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * {@link dunkyboy.bench.Benchmarks} for this package: deriving 1-to-7 rolls from 1-to-5 ones (see
+ * {@link RngDerivationBenchmark} for source calls per output, which these don't report).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class InterviewBenchmarks {
+
+    @State(Scope.Thread)
+    public static class Rolls {
+
+        @Param({ "rejection", "extractor" })
+        public String impl;
+
+        Base5To7Extractor extractor;  // null for rejection
+
+        @Setup
+        public void setUp() {
+            if (impl.equals("extractor"))
+                extractor = new Base5To7Extractor(GoogleRngQuestion::randBetween1And5);
+            else if (!impl.equals("rejection"))
+                throw new IllegalArgumentException("unknown impl: " + impl);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Batches {
+
+        @Param({ "64", "1024" })
+        public int batchSize;
+
+        Base5To7Extractor extractor;
+        int[] batch;
+
+        @Setup
+        public void setUp() {
+            extractor = new Base5To7Extractor(GoogleRngQuestion::randBetween1And5);
+            batch = new int[batchSize];
+        }
+    }
+
+    @Benchmark
+    public int randBetween1And7(Rolls rolls) {
+        if (rolls.extractor != null)
+            return rolls.extractor.getAsInt();
+        return GoogleRngQuestion.randBetween1And7(GoogleRngQuestion::randBetween1And5);
+    }
+
+    /**
+     * One op is a whole batch.
+     */
+    @Benchmark
+    public int fill(Batches batches) {
+        batches.extractor.fill(batches.batch);
+        return batches.batch[0];
+    }
+}
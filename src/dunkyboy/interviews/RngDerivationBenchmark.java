@@ -0,0 +1,117 @@
+package dunkyboy.interviews;
+
+import java.util.Date;
+import java.util.function.IntSupplier;
+
+
+/**
+ * Compares {@link GoogleRngQuestion}'s rejection-sampling answer with {@link Base5To7Extractor}, one output at a time
+ * and in batches: how many times each calls the 1-to-5 source per output (against the log(7) / log(5) entropy bound),
+ * and how many outputs each makes per second.
+ *
+ * Every run calls the source through the same counting wrapper, so they all pay the same for being counted; the
+ * extractor's own count is checked against the wrapper's.
+ */
+public class RngDerivationBenchmark {
+
+    private static final double ENTROPY_BOUND = Math.log(7) / Math.log(5);
+
+    public static void main(String[] args) {
+
+        final int outputs;
+        final int batchSize;
+        try {
+            outputs   = Integer.parseInt(args[0]);  // e.g. 100_000_000
+            batchSize = args.length > 1 ? Integer.parseInt(args[1]) : 1_024;
+        } catch (final Exception e) {
+            System.out.println("Expected args: outputs (int), [batchSize (int)]");
+            System.exit(1);
+            return;
+        }
+
+        System.out.println("Starting benchmark with params at " + new Date() + ":");
+        System.out.println("  outputs:    " + outputs);
+        System.out.println("  batch size: " + batchSize);
+        System.out.println(String.format("  bound:      %.4f source calls per output", ENTROPY_BOUND));
+
+        long hash = 0;
+        for (int round = 0; round < 2; round++) {  // the first round's just warm-up
+            final boolean print = round == 1;
+            if (print)
+                System.out.println(String.format("%n%-14s %16s %10s %16s", "impl", "calls / output", "vs bound",
+                    "outputs / sec"));
+
+            final int n = print ? outputs : Math.min(outputs, 10_000_000);
+            hash += runRejection(n, print);
+            hash += runExtractor(n, print);
+            hash += runExtractorFill(n, batchSize, print);
+        }
+
+        System.out.println("\nhash checksum for compiler's benefit: " + hash);
+    }
+
+    private static long runRejection(int outputs, boolean print) {
+        final long[] calls = { 0 };
+        final IntSupplier source = countingSource(calls);
+
+        long hash = 0;
+        final long startNanos = System.nanoTime();
+        for (int i = 0; i < outputs; i++)
+            hash += GoogleRngQuestion.randBetween1And7(source);
+        report("rejection", calls[0], outputs, System.nanoTime() - startNanos, print);
+        return hash;
+    }
+
+    private static long runExtractor(int outputs, boolean print) {
+        final long[] calls = { 0 };
+        final Base5To7Extractor extractor = new Base5To7Extractor(countingSource(calls));
+
+        long hash = 0;
+        final long startNanos = System.nanoTime();
+        for (int i = 0; i < outputs; i++)
+            hash += extractor.getAsInt();
+        final long elapsedNanos = System.nanoTime() - startNanos;
+        checkCount(extractor, calls);
+        report("extractor", calls[0], outputs, elapsedNanos, print);
+        return hash;
+    }
+
+    private static long runExtractorFill(int outputs, int batchSize, boolean print) {
+        final long[] calls = { 0 };
+        final Base5To7Extractor extractor = new Base5To7Extractor(countingSource(calls));
+        final int[] batch = new int[batchSize];
+
+        long hash = 0;
+        final long startNanos = System.nanoTime();
+        for (int done = 0; done < outputs; done += batchSize) {
+            extractor.fill(batch);
+            hash += batch[0];
+        }
+        final long elapsedNanos = System.nanoTime() - startNanos;
+        checkCount(extractor, calls);
+        final int filled = (outputs + batchSize - 1) / batchSize * batchSize;
+        report("extractor.fill", calls[0], filled, elapsedNanos, print);
+        return hash;
+    }
+
+    private static IntSupplier countingSource(long[] calls) {
+        return () -> {
+            calls[0]++;
+            return GoogleRngQuestion.randBetween1And5();
+        };
+    }
+
+    private static void checkCount(Base5To7Extractor extractor, long[] calls) {
+        if (extractor.getSourceCalls() != calls[0])
+            throw new IllegalStateException("extractor counted " + extractor.getSourceCalls() + " source calls, " +
+                "wrapper counted " + calls[0]);
+    }
+
+    private static void report(String impl, long calls, long outputs, long nanos, boolean print) {
+        if (!print)
+            return;
+        final double callsPerOutput = (double) calls / outputs;
+        System.out.println(String.format("%-14s %16.4f %9.1f%% %,16.0f", impl, callsPerOutput,
+            100 * callsPerOutput / ENTROPY_BOUND, outputs / (nanos / 1_000_000_000.0)));
+    }
+}
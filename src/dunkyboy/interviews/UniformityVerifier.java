@@ -0,0 +1,248 @@
+package dunkyboy.interviews;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+
+/**
+ * Checks that a generator of ints in [min, max] is uniform, over enough samples to catch small biases: sample
+ * generation is split across threads, each with its own generator and its own primitive counts, and the merged counts
+ * get a chi-square goodness-of-fit test and a Kolmogorov-Smirnov test against the uniform distribution.
+ *
+ * Values outside [min, max] are counted separately and fail the check outright.
+ *
+ * The KS p-value uses the continuous Kolmogorov distribution, which is conservative for a discrete one like this
+ * (it overstates the p-value), so chi-square is the test to go by; KS is there because it's more sensitive to a
+ * bias that builds up across neighbouring values, like a skew towards the low end.
+ */
+public class UniformityVerifier {
+
+    public static final class Result {
+        public final int min;
+        public final int max;
+        public final long[] counts;      // counts[i] is how many times min + i came up
+        public final long outOfRange;
+        public final long samples;
+        public final long elapsedNanos;
+
+        public final double chiSquare;
+        public final int degreesOfFreedom;
+        public final double chiSquarePValue;
+
+        public final double ksStatistic;  // largest gap between the empirical and uniform CDFs
+        public final double ksPValue;
+
+        Result(int min, int max, long[] counts, long outOfRange, long elapsedNanos) {
+            this.min = min;
+            this.max = max;
+            this.counts = counts;
+            this.outOfRange = outOfRange;
+            this.elapsedNanos = elapsedNanos;
+
+            long inRange = 0;
+            for (final long count : counts)
+                inRange += count;
+            this.samples = inRange + outOfRange;
+
+            final double expected = (double) inRange / counts.length;
+            double chiSquare = 0;
+            double cumulative = 0;
+            double ksStatistic = 0;
+            for (int i = 0; i < counts.length; i++) {
+                chiSquare += (counts[i] - expected) * (counts[i] - expected) / expected;
+                cumulative += counts[i];
+                ksStatistic = Math.max(ksStatistic, Math.abs(cumulative / inRange - (i + 1.0) / counts.length));
+            }
+            this.chiSquare = chiSquare;
+            this.degreesOfFreedom = counts.length - 1;
+            this.chiSquarePValue = regularizedGammaQ(degreesOfFreedom / 2.0, chiSquare / 2);
+            this.ksStatistic = ksStatistic;
+            this.ksPValue = kolmogorovPValue(Math.sqrt(inRange) * ksStatistic);
+        }
+
+        /**
+         * @return whether nothing was out of range and neither test rejects uniformity at {@code significance}
+         */
+        public boolean isUniform(double significance) {
+            return outOfRange == 0 && chiSquarePValue >= significance && ksPValue >= significance;
+        }
+
+        public void print(PrintStream out, double significance) {
+            out.println(String.format("  %,d samples in %.1f secs (%,.0f / sec)", samples,
+                elapsedNanos / 1_000_000_000.0, samples / (elapsedNanos / 1_000_000_000.0)));
+
+            final double expected = (double) (samples - outOfRange) / counts.length;
+            for (int i = 0; i < counts.length; i++)
+                out.println(String.format("    %d: %,15d (%+.5f%%)", min + i, counts[i],
+                    100 * (counts[i] - expected) / expected));
+            if (outOfRange > 0)
+                out.println(String.format("    out of range: %,d", outOfRange));
+
+            out.println(String.format("  chi-square: %.3f, %d degrees of freedom, p = %.4f", chiSquare,
+                degreesOfFreedom, chiSquarePValue));
+            out.println(String.format("  KS: D = %.3g, p = %.4f", ksStatistic, ksPValue));
+            out.println("  " + (isUniform(significance) ? "uniform" : "NOT uniform") + " at significance " +
+                significance);
+        }
+    }
+
+    /**
+     * @param generators makes one generator per thread, so they needn't be thread-safe
+     */
+    public static Result verify(Supplier<? extends IntSupplier> generators, int min, int max, long samples,
+                                int threads) throws InterruptedException {
+        if (max <= min)
+            throw new IllegalArgumentException("max must be above min: " + min + ", " + max);
+        final long range = (long) max - min + 1;
+        if (range > Integer.MAX_VALUE - 8)
+            throw new IllegalArgumentException("too many values to count: " + range);
+        if (threads < 1)
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+
+        final List<CountingThread> countingThreads = new ArrayList<>(threads);
+        for (int t = 0; t < threads; t++) {
+            final long share = samples / threads + (t < samples % threads ? 1 : 0);
+            countingThreads.add(new CountingThread(t, generators.get(), min, (int) range, share));
+        }
+
+        final long startNanos = System.nanoTime();
+        for (final CountingThread thread : countingThreads)
+            thread.start();
+        for (final CountingThread thread : countingThreads)
+            thread.join();
+        final long elapsedNanos = System.nanoTime() - startNanos;
+
+        final long[] counts = new long[(int) range];
+        long outOfRange = 0;
+        for (final CountingThread thread : countingThreads) {
+            if (thread.failure != null)
+                throw new IllegalStateException("generator failed in " + thread.getName(), thread.failure);
+            for (int i = 0; i < range; i++)
+                counts[i] += thread.counts[i];
+            outOfRange += thread.outOfRange;
+        }
+        return new Result(min, max, counts, outOfRange, elapsedNanos);
+    }
+
+    /**
+     * One shard of the samples. Its counts are only read once it's been joined.
+     */
+    private static final class CountingThread extends Thread {
+
+        private final IntSupplier generator;
+        private final int min;
+        private final long samples;
+
+        final long[] counts;
+        long outOfRange = 0;
+        Throwable failure = null;
+
+        CountingThread(int index, IntSupplier generator, int min, int range, long samples) {
+            super("UniformityVerifier-" + index);
+            this.generator = generator;
+            this.min = min;
+            this.samples = samples;
+            this.counts = new long[range];
+        }
+
+        @Override
+        public void run() {
+            try {
+                final long[] counts = this.counts;
+                final int range = counts.length;
+                long outOfRange = 0;
+                for (long i = 0; i < samples; i++) {
+                    final long index = (long) generator.getAsInt() - min;  // in long, as an int could wrap round
+                    if (index >= 0 && index < range)
+                        counts[(int) index]++;
+                    else
+                        outOfRange++;
+                }
+                this.outOfRange = outOfRange;
+            } catch (final Throwable e) {
+                failure = e;
+            }
+        }
+    }
+
+    /**
+     * @return Q(a, x), the upper regularized incomplete gamma function: the chi-square survival function is
+     *         Q(df / 2, chiSquare / 2). A series below a + 1 and a continued fraction above, as in Numerical Recipes.
+     */
+    static double regularizedGammaQ(double a, double x) {
+        if (x <= 0)
+            return 1;
+        final double logPrefix = a * Math.log(x) - x - logGamma(a);
+
+        if (x < a + 1) {
+            double term = 1 / a;
+            double sum = term;
+            for (int n = 1; n < 10_000 && Math.abs(term) > Math.abs(sum) * 1e-15; n++) {
+                term *= x / (a + n);
+                sum += term;
+            }
+            return Math.max(0, 1 - sum * Math.exp(logPrefix));
+        }
+
+        // modified Lentz
+        final double tiny = 1e-300;
+        double b = x + 1 - a;
+        double c = 1 / tiny;
+        double d = 1 / b;
+        double h = d;
+        for (int n = 1; n < 10_000; n++) {
+            final double an = -n * (n - a);
+            b += 2;
+            d = an * d + b;
+            if (Math.abs(d) < tiny)
+                d = tiny;
+            c = b + an / c;
+            if (Math.abs(c) < tiny)
+                c = tiny;
+            d = 1 / d;
+            final double delta = d * c;
+            h *= delta;
+            if (Math.abs(delta - 1) < 1e-15)
+                break;
+        }
+        return Math.exp(logPrefix) * h;
+    }
+
+    /**
+     * Lanczos approximation (g = 7, 9 terms), good to about 15 digits for positive x.
+     */
+    static double logGamma(double x) {
+        if (x < 0.5)
+            return Math.log(Math.PI / Math.sin(Math.PI * x)) - logGamma(1 - x);
+
+        final double[] coefficients = {
+            0.99999999999980993, 676.5203681218851, -1259.1392167224028, 771.32342877765313,
+            -176.61502916214059, 12.507343278686905, -0.13857109526572012, 9.9843695780195716e-6,
+            1.5056327351493116e-7 };
+        x -= 1;
+        double sum = coefficients[0];
+        for (int i = 1; i < coefficients.length; i++)
+            sum += coefficients[i] / (x + i);
+        final double t = x + 7.5;
+        return 0.5 * Math.log(2 * Math.PI) + (x + 0.5) * Math.log(t) - t + Math.log(sum);
+    }
+
+    /**
+     * @return P(K > x) for the Kolmogorov distribution, the asymptotic p-value of sqrt(n) * D
+     */
+    static double kolmogorovPValue(double x) {
+        if (x < 0.2)
+            return 1;  // the series converges too slowly to bother down here, and the answer is 1 to 6 places
+        double sum = 0;
+        for (int j = 1; j <= 100; j++) {
+            final double term = Math.exp(-2.0 * j * j * x * x);
+            sum += (j % 2 == 1 ? term : -term);
+            if (term < 1e-16)
+                break;
+        }
+        return Math.max(0, Math.min(1, 2 * sum));
+    }
+}
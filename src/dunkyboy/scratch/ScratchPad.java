@@ -1,6 +1,6 @@
 package dunkyboy.scratch;
 
-import dunkyboy.util.ThreadsafeRunningAverage;
+import dunkyboy.util.LatencyHistogram;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.collections4.Bag;
 import org.apache.commons.collections4.bag.HashBag;
@@ -63,7 +63,7 @@ public class ScratchPad {
 
         List<byte[]> bufferOfHashResultsToEnsureCompilerDoesntOptimizeMyWork = new ArrayList<>(1_000);  // capped to keep heap usage reasonable
 
-        ThreadsafeRunningAverage averageElapsedNanos = new ThreadsafeRunningAverage();
+        LatencyHistogram elapsedNanosHistogram = new LatencyHistogram();
         IntStream.range(0, numTestIterations)
 //            .parallel()
             .forEach( i -> {
@@ -76,15 +76,15 @@ public class ScratchPad {
                 }
                 bufferOfHashResultsToEnsureCompilerDoesntOptimizeMyWork.add(hash);
 
-                averageElapsedNanos.addValue(elapsedNanos);
+                elapsedNanosHistogram.recordValue(elapsedNanos);
             }
         );
 
         long totalElapsedNanos = System.nanoTime() - methodStartNanos;
 
-        System.out.println("avg elapsed over " + numTestIterations +
-            " iterations: " + (averageElapsedNanos.get()/1_000_000.0) + "ms" +
-            " (total elapsed: " + (totalElapsedNanos/1_000_000.0) + "ms)");
+        System.out.println("latency over " + numTestIterations +
+            " iterations (total elapsed: " + (totalElapsedNanos/1_000_000.0) + "ms):");
+        elapsedNanosHistogram.printPercentiles(System.out, "ms", 1_000_000.0);
 
         System.out.println("  (buffer size for compiler's benefit: " + bufferOfHashResultsToEnsureCompilerDoesntOptimizeMyWork.size() + ")");
     }
@@ -0,0 +1,16 @@
+package dunkyboy.util;
+
+/**
+ * Average of a stream of {@code long} values, whether or not it's safe to record from several threads.
+ */
+public interface Average {
+
+    /**
+     * @return the average so far, as the implementation defines it
+     */
+    long addValue(long value);
+
+    long get();
+
+    long getCount();
+}
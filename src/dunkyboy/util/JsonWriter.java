@@ -0,0 +1,126 @@
+package dunkyboy.util;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+
+/**
+ * Minimal streaming JSON writer, enough for exporting benchmark results without pulling in a JSON library.
+ *
+ * <pre>
+ *   new JsonWriter().beginObject().name("score").value(1.5).endObject().toString()  // {"score":1.5}
+ * </pre>
+ *
+ * Not thread-safe, and doesn't check that calls are well nested beyond what's needed to place commas.
+ */
+public class JsonWriter {
+
+    private final StringBuilder out = new StringBuilder();
+
+    private final Deque<Boolean> isFirstInScope = new ArrayDeque<>();
+    private boolean afterName = false;
+
+    public JsonWriter beginObject() {
+        beforeValue();
+        out.append('{');
+        isFirstInScope.push(true);
+        return this;
+    }
+
+    public JsonWriter endObject() {
+        isFirstInScope.pop();
+        out.append('}');
+        return this;
+    }
+
+    public JsonWriter beginArray() {
+        beforeValue();
+        out.append('[');
+        isFirstInScope.push(true);
+        return this;
+    }
+
+    public JsonWriter endArray() {
+        isFirstInScope.pop();
+        out.append(']');
+        return this;
+    }
+
+    public JsonWriter name(String name) {
+        beforeValue();
+        appendString(name);
+        out.append(':');
+        afterName = true;
+        return this;
+    }
+
+    public JsonWriter value(String value) {
+        beforeValue();
+        if (value == null)
+            out.append("null");
+        else
+            appendString(value);
+        return this;
+    }
+
+    public JsonWriter value(long value) {
+        beforeValue();
+        out.append(value);
+        return this;
+    }
+
+    /**
+     * NaN and infinities aren't valid JSON, so they're written as null.
+     */
+    public JsonWriter value(double value) {
+        beforeValue();
+        if (Double.isNaN(value) || Double.isInfinite(value))
+            out.append("null");
+        else
+            out.append(value);
+        return this;
+    }
+
+    public JsonWriter value(boolean value) {
+        beforeValue();
+        out.append(value);
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return out.toString();
+    }
+
+    private void beforeValue() {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (!isFirstInScope.isEmpty()) {
+            if (!isFirstInScope.pop())
+                out.append(',');
+            isFirstInScope.push(false);
+        }
+    }
+
+    private void appendString(String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '"':  out.append("\\\""); break;
+                case '\\': out.append("\\\\"); break;
+                case '\n': out.append("\\n");  break;
+                case '\r': out.append("\\r");  break;
+                case '\t': out.append("\\t");  break;
+                default:
+                    if (c < 0x20)
+                        out.append(String.format("\\u%04x", (int) c));
+                    else
+                        out.append(c);
+            }
+        }
+        out.append('"');
+    }
+}
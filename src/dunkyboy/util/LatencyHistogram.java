@@ -0,0 +1,226 @@
+package dunkyboy.util;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * Fixed-size, log-bucketed histogram of non-negative {@code long} values (typically latencies in nanos), in the
+ * spirit of HdrHistogram.
+ *
+ * Values below 2^significantBits get a bucket each; above that, every power of two is split into 2^significantBits
+ * equal-width buckets, so any recorded value is known to within a relative error of 2^-significantBits (under 1% at
+ * the default of 7). Memory is fixed at construction, and {@link #recordValue} is a couple of shifts plus an atomic
+ * increment: constant time, no allocation, and safe to call from any number of threads at once.
+ *
+ * {@link #copy()} and {@link #intervalSnapshot()} give plain point-in-time histograms to report on; the interval
+ * variant also resets this one, so every recorded value shows up in exactly one interval.
+ */
+public class LatencyHistogram {
+
+    private final int significantBits;
+    private final int subBucketCount;
+    private final AtomicLongArray counts;
+
+    private final AtomicLong minValue = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong maxValue = new AtomicLong(0);
+
+    public LatencyHistogram() {
+        this(7);
+    }
+
+    public LatencyHistogram(int significantBits) {
+        if (significantBits < 1 || significantBits > 16)
+            throw new IllegalArgumentException("significantBits must be between 1 and 16: " + significantBits);
+
+        this.significantBits = significantBits;
+        this.subBucketCount = 1 << significantBits;
+        this.counts = new AtomicLongArray((64 - significantBits) << significantBits);
+    }
+
+    public void recordValue(long value) {
+        if (value < 0)
+            throw new IllegalArgumentException("negative value: " + value);
+
+        counts.incrementAndGet(indexOf(value));
+        raiseTo(maxValue, value);
+        lowerTo(minValue, value);
+    }
+
+    /**
+     * Adds all of {@code other}'s counts to this one. Both must have the same {@code significantBits}.
+     */
+    public void add(LatencyHistogram other) {
+        if (other.significantBits != significantBits)
+            throw new IllegalArgumentException("can't add histograms of different precision: " +
+                other.significantBits + " vs " + significantBits);
+
+        for (int i = 0; i < counts.length(); i++) {
+            final long count = other.counts.get(i);
+            if (count != 0)
+                counts.addAndGet(i, count);
+        }
+        raiseTo(maxValue, other.maxValue.get());
+        lowerTo(minValue, other.minValue.get());
+    }
+
+    /**
+     * @return a copy of the current counts; recorders can keep going while it's taken
+     */
+    public LatencyHistogram copy() {
+        final LatencyHistogram copy = new LatencyHistogram(significantBits);
+        copy.add(this);
+        return copy;
+    }
+
+    /**
+     * @return everything recorded since the last interval snapshot (or construction), resetting this histogram
+     */
+    public LatencyHistogram intervalSnapshot() {
+        final LatencyHistogram snapshot = new LatencyHistogram(significantBits);
+        for (int i = 0; i < counts.length(); i++) {
+            if (counts.get(i) != 0)
+                snapshot.counts.set(i, counts.getAndSet(i, 0));
+        }
+
+        // a value recorded right now may land its count in one interval and its min/max in the next; close enough
+        snapshot.maxValue.set(maxValue.getAndSet(0));
+        snapshot.minValue.set(minValue.getAndSet(Long.MAX_VALUE));
+        return snapshot;
+    }
+
+    public long getTotalCount() {
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++)
+            total += counts.get(i);
+        return total;
+    }
+
+    /**
+     * @return the exact largest value recorded, or 0 if empty
+     */
+    public long getMax() {
+        return maxValue.get();
+    }
+
+    /**
+     * @return the exact smallest value recorded, or 0 if empty
+     */
+    public long getMin() {
+        final long min = minValue.get();
+        return min == Long.MAX_VALUE ? 0 : min;
+    }
+
+    /**
+     * @param percentile e.g. 99.9
+     * @return the value that {@code percentile}% of recorded values are at or below (to within the histogram's
+     *         precision), or 0 if empty
+     */
+    public long getValueAtPercentile(double percentile) {
+        final long totalCount = getTotalCount();
+        if (totalCount == 0)
+            return 0;
+
+        final long countAtPercentile = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * totalCount));
+
+        long runningCount = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            runningCount += counts.get(i);
+            if (runningCount >= countAtPercentile)
+                return Math.min(highestEquivalentValue(i), getMax());
+        }
+        return getMax();
+    }
+
+    /**
+     * @return the mean, using each bucket's midpoint for its values
+     */
+    public double getMean() {
+        long totalCount = 0;
+        double total = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            final long count = counts.get(i);
+            if (count != 0) {
+                totalCount += count;
+                total += count * midpoint(i);
+            }
+        }
+        return totalCount == 0 ? 0 : total / totalCount;
+    }
+
+    /**
+     * @return the population standard deviation, using each bucket's midpoint for its values
+     */
+    public double getStdDev() {
+        final double mean = getMean();
+        long totalCount = 0;
+        double squaredDeviations = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            final long count = counts.get(i);
+            if (count != 0) {
+                totalCount += count;
+                final double deviation = midpoint(i) - mean;
+                squaredDeviations += count * deviation * deviation;
+            }
+        }
+        return totalCount == 0 ? 0 : Math.sqrt(squaredDeviations / totalCount);
+    }
+
+    /**
+     * Prints count, mean, stddev, min, common percentiles and max, one per line.
+     *
+     * @param unitName  e.g. "ms"
+     * @param unitScale how many recorded units there are per {@code unitName}, e.g. 1_000_000 for nanos to ms
+     */
+    public void printPercentiles(PrintStream out, String unitName, double unitScale) {
+        out.println(String.format("  %-8s %,12d", "count:", getTotalCount()));
+        out.println(String.format("  %-8s %12.3f %s", "mean:",   getMean() / unitScale, unitName));
+        out.println(String.format("  %-8s %12.3f %s", "stddev:", getStdDev() / unitScale, unitName));
+        out.println(String.format("  %-8s %12.3f %s", "min:",    getMin() / unitScale, unitName));
+        for (final double percentile : new double[] { 50, 90, 99, 99.9, 99.99 })
+            out.println(String.format("  %-8s %12.3f %s", "p" + formatPercentile(percentile) + ":",
+                getValueAtPercentile(percentile) / unitScale, unitName));
+        out.println(String.format("  %-8s %12.3f %s", "max:",    getMax() / unitScale, unitName));
+    }
+
+    private int indexOf(long value) {
+        if (value < subBucketCount)
+            return (int) value;
+
+        final int shift = (63 - Long.numberOfLeadingZeros(value)) - significantBits;
+        return ((shift + 1) << significantBits) + (int) ((value >>> shift) - subBucketCount);
+    }
+
+    private long lowestEquivalentValue(int index) {
+        final int block = index >>> significantBits;
+        if (block == 0)
+            return index;
+        return ((long) (subBucketCount + (index & (subBucketCount - 1)))) << (block - 1);
+    }
+
+    private long highestEquivalentValue(int index) {
+        final int block = index >>> significantBits;
+        return lowestEquivalentValue(index) + (block == 0 ? 0 : (1L << (block - 1)) - 1);
+    }
+
+    private double midpoint(int index) {
+        return (lowestEquivalentValue(index) + (double) highestEquivalentValue(index)) / 2;
+    }
+
+    private static void raiseTo(AtomicLong current, long value) {
+        long currentValue = current.get();
+        while (value > currentValue && !current.compareAndSet(currentValue, value))
+            currentValue = current.get();
+    }
+
+    private static void lowerTo(AtomicLong current, long value) {
+        long currentValue = current.get();
+        while (value < currentValue && !current.compareAndSet(currentValue, value))
+            currentValue = current.get();
+    }
+
+    private static String formatPercentile(double percentile) {
+        return percentile == Math.rint(percentile) ? String.valueOf((long) percentile) : String.valueOf(percentile);
+    }
+}
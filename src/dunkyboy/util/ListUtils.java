@@ -1,11 +1,23 @@
 package dunkyboy.util;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 
 /**
  * Implementation alternative for https://github.com/10gen/mms/pull/9761/files/8819188d7071ebf987421db1b1692ce7ff313b0d#diff-dd0e91c1cce53d6ef3490d8a6bb649b4
  *
+ * Merges are k-way: a binary min-heap holds one cursor per input, so merging N elements from k sorted inputs is
+ * O(N log k). Merges are stable - equal elements keep their input order, and elements from earlier inputs come before
+ * equal elements from later ones - and every element is kept, even ones that compare equal.
+ *
+ * The parallel variants run a pairwise tournament of merges on a {@link ForkJoinPool}: the inputs are split into two
+ * halves of roughly equal element count, each half is merged (recursively, in parallel), and the two results are
+ * merged with a parallel two-way merge. Everything below a sequential cutoff is merged on the current thread.
+ *
  * Created by darmstrong on 4/17/17.
  */
 public class ListUtils {
@@ -19,32 +31,589 @@ public class ListUtils {
 
     public static <T> List<T> mergeSortedLists(List<List<T>> pLists, final Comparator<T> pComparator) {
 
-        final TreeSet<T> treeSet = new TreeSet<T>(pComparator);
+        int totalSize = 0;
+        for (final List<T> thisList : pLists)
+            totalSize += thisList.size();
+
+        final List<T> mergedList = new ArrayList<>(totalSize);
+
+        mergeSortedIterator(pLists, pComparator).forEachRemaining(mergedList::add);
+
+        return mergedList;
+    }
+
+    public static final int DEFAULT_SEQUENTIAL_CUTOFF = 1 << 13;
+
+    public static <T> List<T> mergeSortedListsParallel(List<List<T>> pLists, final Comparator<T> pComparator) {
+        return mergeSortedListsParallel(pLists, pComparator, ForkJoinPool.commonPool(), DEFAULT_SEQUENTIAL_CUTOFF);
+    }
+
+    /**
+     * Parallel version of {@link #mergeSortedLists(List, Comparator)}, with the same ordering. Results are written
+     * straight into one pre-sized array.
+     *
+     * @param pSequentialCutoff merges of at most this many elements aren't split any further
+     * @return a fixed-size list backed by the output array
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> List<T> mergeSortedListsParallel(List<List<T>> pLists, final Comparator<T> pComparator,
+                                                       final ForkJoinPool pPool, final int pSequentialCutoff) {
+
+        final int[] runStarts = new int[pLists.size() + 1];
+        for (int i = 0; i < pLists.size(); i++)
+            runStarts[i + 1] = Math.addExact(runStarts[i], pLists.get(i).size());
+
+        final Object[] merged = new Object[runStarts[pLists.size()]];
+        if (pLists.isEmpty())
+            return (List<T>) Arrays.asList(merged);
+
+        final Object[] scratch = merged.length > pSequentialCutoff ? new Object[merged.length] : null;
+
+        pPool.invoke(new MergeRunsTask<>(
+            pLists, runStarts, 0, pLists.size(), merged, scratch, pComparator, Math.max(1, pSequentialCutoff)));
+
+        return (List<T>) Arrays.asList(merged);
+    }
+
+    /*
+     * Primitive merges, for timestamps, ids and the like: no boxing, no Comparator, and nothing allocated per element -
+     * just a heap of array indexes over a pre-sized output array. Inputs must be sorted ascending (for doubles, in
+     * Double.compare order, which is what Arrays.sort gives).
+     */
+
+    public static long[] mergeSorted(long[][] pArrays) {
+        final long[] merged = new long[totalLength(pArrays)];
+        mergeLongs(pArrays, merged, null);
+        return merged;
+    }
+
+    public static void mergeSorted(long[][] pArrays, long[] pOut) {
+        checkCapacity(totalLength(pArrays), pOut.length);
+        mergeLongs(pArrays, pOut, null);
+    }
+
+    /**
+     * Merges into distinct values and how often each occurred.
+     *
+     * @param pValuesOut gets the distinct values, in order; needs room for every input element in the worst case
+     * @param pCountsOut gets the number of occurrences of each value, at the same index; same size as pValuesOut
+     * @return the number of distinct values written
+     */
+    public static int mergeSortedDistinct(long[][] pArrays, long[] pValuesOut, long[] pCountsOut) {
+        final int totalLength = totalLength(pArrays);
+        checkCapacity(totalLength, pValuesOut.length);
+        checkCapacity(totalLength, pCountsOut.length);
+        return mergeLongs(pArrays, pValuesOut, pCountsOut);
+    }
+
+    private static int mergeLongs(long[][] arrays, long[] out, long[] counts) {
+        final int[] positions = new int[arrays.length];
+        final int[] heap = new int[arrays.length];
+        int heapSize = 0;
+        for (int i = 0; i < arrays.length; i++) {
+            if (arrays[i].length > 0)
+                heap[heapSize++] = i;
+        }
+        for (int i = heapSize / 2 - 1; i >= 0; i--)
+            siftDownLongs(heap, heapSize, i, arrays, positions);
+
+        int written = 0;
+        while (heapSize > 0) {
+            final int array = heap[0];
+            final long value = arrays[array][positions[array]++];
+            if (positions[array] == arrays[array].length)
+                heap[0] = heap[--heapSize];
+            if (heapSize > 0)
+                siftDownLongs(heap, heapSize, 0, arrays, positions);
+
+            if (counts == null) {
+                out[written++] = value;
+            } else if (written > 0 && out[written - 1] == value) {
+                counts[written - 1]++;
+            } else {
+                out[written] = value;
+                counts[written++] = 1;
+            }
+        }
+        return written;
+    }
+
+    private static void siftDownLongs(int[] heap, int heapSize, int position, long[][] arrays, int[] positions) {
+        final int array = heap[position];
+        final long value = arrays[array][positions[array]];
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= heapSize)
+                break;
+            long childValue = arrays[heap[child]][positions[heap[child]]];
+            if (child + 1 < heapSize) {
+                final long rightValue = arrays[heap[child + 1]][positions[heap[child + 1]]];
+                if (rightValue < childValue) {
+                    child++;
+                    childValue = rightValue;
+                }
+            }
+            if (childValue >= value)
+                break;
+            heap[position] = heap[child];
+            position = child;
+        }
+        heap[position] = array;
+    }
+
+    public static int[] mergeSorted(int[][] pArrays) {
+        final int[] merged = new int[totalLength(pArrays)];
+        mergeInts(pArrays, merged, null);
+        return merged;
+    }
 
-        final Map<T, Long> counts = new HashMap<>();
+    public static void mergeSorted(int[][] pArrays, int[] pOut) {
+        checkCapacity(totalLength(pArrays), pOut.length);
+        mergeInts(pArrays, pOut, null);
+    }
+
+    /**
+     * Merges into distinct values and how often each occurred.
+     *
+     * @param pValuesOut gets the distinct values, in order; needs room for every input element in the worst case
+     * @param pCountsOut gets the number of occurrences of each value, at the same index; same size as pValuesOut
+     * @return the number of distinct values written
+     */
+    public static int mergeSortedDistinct(int[][] pArrays, int[] pValuesOut, long[] pCountsOut) {
+        final int totalLength = totalLength(pArrays);
+        checkCapacity(totalLength, pValuesOut.length);
+        checkCapacity(totalLength, pCountsOut.length);
+        return mergeInts(pArrays, pValuesOut, pCountsOut);
+    }
+
+    private static int mergeInts(int[][] arrays, int[] out, long[] counts) {
+        final int[] positions = new int[arrays.length];
+        final int[] heap = new int[arrays.length];
+        int heapSize = 0;
+        for (int i = 0; i < arrays.length; i++) {
+            if (arrays[i].length > 0)
+                heap[heapSize++] = i;
+        }
+        for (int i = heapSize / 2 - 1; i >= 0; i--)
+            siftDownInts(heap, heapSize, i, arrays, positions);
 
-        for (final List<T> thisList : pLists) {
-            treeSet.addAll(thisList);
-            for (T thisElement : thisList) {
-                treeSet.add(thisElement);  // O(log treeSet.size)
+        int written = 0;
+        while (heapSize > 0) {
+            final int array = heap[0];
+            final int value = arrays[array][positions[array]++];
+            if (positions[array] == arrays[array].length)
+                heap[0] = heap[--heapSize];
+            if (heapSize > 0)
+                siftDownInts(heap, heapSize, 0, arrays, positions);
 
-                Long count = counts.get(thisElement);
-                if (count == null) {
-                    count = 0L;
+            if (counts == null) {
+                out[written++] = value;
+            } else if (written > 0 && out[written - 1] == value) {
+                counts[written - 1]++;
+            } else {
+                out[written] = value;
+                counts[written++] = 1;
+            }
+        }
+        return written;
+    }
+
+    private static void siftDownInts(int[] heap, int heapSize, int position, int[][] arrays, int[] positions) {
+        final int array = heap[position];
+        final int value = arrays[array][positions[array]];
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= heapSize)
+                break;
+            int childValue = arrays[heap[child]][positions[heap[child]]];
+            if (child + 1 < heapSize) {
+                final int rightValue = arrays[heap[child + 1]][positions[heap[child + 1]]];
+                if (rightValue < childValue) {
+                    child++;
+                    childValue = rightValue;
                 }
-                counts.put(thisElement, ++count);
             }
+            if (childValue >= value)
+                break;
+            heap[position] = heap[child];
+            position = child;
+        }
+        heap[position] = array;
+    }
+
+    public static double[] mergeSorted(double[][] pArrays) {
+        final double[] merged = new double[totalLength(pArrays)];
+        mergeDoubles(pArrays, merged, null);
+        return merged;
+    }
+
+    public static void mergeSorted(double[][] pArrays, double[] pOut) {
+        checkCapacity(totalLength(pArrays), pOut.length);
+        mergeDoubles(pArrays, pOut, null);
+    }
+
+    /**
+     * Merges into distinct values and how often each occurred.
+     *
+     * @param pValuesOut gets the distinct values, in order; needs room for every input element in the worst case
+     * @param pCountsOut gets the number of occurrences of each value, at the same index; same size as pValuesOut
+     * @return the number of distinct values written
+     */
+    public static int mergeSortedDistinct(double[][] pArrays, double[] pValuesOut, long[] pCountsOut) {
+        final int totalLength = totalLength(pArrays);
+        checkCapacity(totalLength, pValuesOut.length);
+        checkCapacity(totalLength, pCountsOut.length);
+        return mergeDoubles(pArrays, pValuesOut, pCountsOut);
+    }
+
+    private static int mergeDoubles(double[][] arrays, double[] out, long[] counts) {
+        final int[] positions = new int[arrays.length];
+        final int[] heap = new int[arrays.length];
+        int heapSize = 0;
+        for (int i = 0; i < arrays.length; i++) {
+            if (arrays[i].length > 0)
+                heap[heapSize++] = i;
         }
+        for (int i = heapSize / 2 - 1; i >= 0; i--)
+            siftDownDoubles(heap, heapSize, i, arrays, positions);
 
-        final List<T> mergedList = new LinkedList<>();
+        int written = 0;
+        while (heapSize > 0) {
+            final int array = heap[0];
+            final double value = arrays[array][positions[array]++];
+            if (positions[array] == arrays[array].length)
+                heap[0] = heap[--heapSize];
+            if (heapSize > 0)
+                siftDownDoubles(heap, heapSize, 0, arrays, positions);
 
-        for (T element : treeSet) {
-            final long count = counts.get(element);
-            for (long i = 0; i < count; i++) {
-                mergedList.add(element);
+            if (counts == null) {
+                out[written++] = value;
+            } else if (written > 0 && Double.compare(out[written - 1], value) == 0) {
+                counts[written - 1]++;
+            } else {
+                out[written] = value;
+                counts[written++] = 1;
             }
         }
+        return written;
+    }
 
-        return mergedList;
+    private static void siftDownDoubles(int[] heap, int heapSize, int position, double[][] arrays, int[] positions) {
+        final int array = heap[position];
+        final double value = arrays[array][positions[array]];
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= heapSize)
+                break;
+            double childValue = arrays[heap[child]][positions[heap[child]]];
+            if (child + 1 < heapSize) {
+                final double rightValue = arrays[heap[child + 1]][positions[heap[child + 1]]];
+                if (Double.compare(rightValue, childValue) < 0) {
+                    child++;
+                    childValue = rightValue;
+                }
+            }
+            if (Double.compare(childValue, value) >= 0)
+                break;
+            heap[position] = heap[child];
+            position = child;
+        }
+        heap[position] = array;
+    }
+
+    private static int totalLength(long[][] pArrays) {
+        int totalLength = 0;
+        for (final long[] array : pArrays)
+            totalLength = Math.addExact(totalLength, array.length);
+        return totalLength;
+    }
+
+    private static int totalLength(int[][] pArrays) {
+        int totalLength = 0;
+        for (final int[] array : pArrays)
+            totalLength = Math.addExact(totalLength, array.length);
+        return totalLength;
+    }
+
+    private static int totalLength(double[][] pArrays) {
+        int totalLength = 0;
+        for (final double[] array : pArrays)
+            totalLength = Math.addExact(totalLength, array.length);
+        return totalLength;
+    }
+
+    private static void checkCapacity(int required, int capacity) {
+        if (capacity < required)
+            throw new IllegalArgumentException("output array too small: need " + required + ", got " + capacity);
+    }
+
+    /**
+     * Lazy version of {@link #mergeSortedLists(List, Comparator)}: each input is only read as far as the merge has
+     * got, and nothing is buffered beyond one element per input.
+     */
+    public static <T> Iterator<T> mergeSortedIterator(List<? extends Iterable<? extends T>> pSources,
+                                                      final Comparator<? super T> pComparator) {
+        return new KWayMergeIterator<>(pSources, pComparator);
+    }
+
+    /**
+     * Lazy, sequential stream over {@link #mergeSortedIterator}.
+     */
+    public static <T> Stream<T> mergeSortedStream(List<? extends Iterable<? extends T>> pSources,
+                                                  final Comparator<? super T> pComparator) {
+        return StreamSupport.stream(
+            Spliterators.spliteratorUnknownSize(mergeSortedIterator(pSources, pComparator), Spliterator.ORDERED),
+            false
+        );
+    }
+
+    /**
+     * Merges inputs {@code [lo, hi)} into {@code dst}, at the offset where the first of them starts. Child merges write
+     * into {@code other}, and this task merges their results back into {@code dst}, so the two buffers swap roles at
+     * each level of the tournament.
+     */
+    private static final class MergeRunsTask<T> extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<List<T>> lists;
+        private final int[] runStarts;
+        private final int lo;
+        private final int hi;
+        private final Object[] dst;
+        private final Object[] other;
+        private final Comparator<T> comparator;
+        private final int cutoff;
+
+        MergeRunsTask(List<List<T>> lists, int[] runStarts, int lo, int hi, Object[] dst, Object[] other,
+                      Comparator<T> comparator, int cutoff) {
+            this.lists = lists;
+            this.runStarts = runStarts;
+            this.lo = lo;
+            this.hi = hi;
+            this.dst = dst;
+            this.other = other;
+            this.comparator = comparator;
+            this.cutoff = cutoff;
+        }
+
+        @Override
+        protected void compute() {
+            final int from = runStarts[lo];
+            final int to = runStarts[hi];
+
+            if (hi - lo == 1 || to - from <= cutoff) {
+                int i = from;
+                for (final Iterator<T> merged = mergeSortedIterator(lists.subList(lo, hi), comparator); merged.hasNext(); )
+                    dst[i++] = merged.next();
+                return;
+            }
+
+            // split where the element counts are closest to even, keeping at least one input on each side
+            int mid = Arrays.binarySearch(runStarts, lo, hi + 1, from + (to - from) / 2);
+            if (mid < 0)
+                mid = -mid - 1;
+            mid = Math.max(lo + 1, Math.min(hi - 1, mid));
+
+            invokeAll(
+                new MergeRunsTask<>(lists, runStarts, lo, mid, other, dst, comparator, cutoff),
+                new MergeRunsTask<>(lists, runStarts, mid, hi, other, dst, comparator, cutoff)
+            );
+
+            new MergeTwoTask<>(other, from, runStarts[mid], runStarts[mid], to, dst, from, comparator, cutoff).compute();
+        }
+    }
+
+    /**
+     * Stable merge of sorted ranges {@code src[aLo, aHi)} and {@code src[bLo, bHi)} into {@code dst} starting at
+     * {@code dstLo}. Large merges take the bigger range's middle element as a pivot, binary search the matching split
+     * point in the other range, and merge the elements either side of the pivot in parallel.
+     */
+    private static final class MergeTwoTask<T> extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Object[] src;
+        private final int aLo;
+        private final int aHi;
+        private final int bLo;
+        private final int bHi;
+        private final Object[] dst;
+        private final int dstLo;
+        private final Comparator<T> comparator;
+        private final int cutoff;
+
+        MergeTwoTask(Object[] src, int aLo, int aHi, int bLo, int bHi, Object[] dst, int dstLo,
+                     Comparator<T> comparator, int cutoff) {
+            this.src = src;
+            this.aLo = aLo;
+            this.aHi = aHi;
+            this.bLo = bLo;
+            this.bHi = bHi;
+            this.dst = dst;
+            this.dstLo = dstLo;
+            this.comparator = comparator;
+            this.cutoff = cutoff;
+        }
+
+        @Override
+        protected void compute() {
+            final int aSize = aHi - aLo;
+            final int bSize = bHi - bLo;
+
+            if (aSize + bSize <= cutoff) {
+                mergeSequentially();
+                return;
+            }
+
+            // the pivot goes straight to its final slot, so both halves shrink even when one side is tiny
+            final boolean pivotFromA = aSize >= bSize;
+            final int aMid;
+            final int bMid;
+            final int pivotIndex;
+            if (pivotFromA) {
+                aMid = aLo + aSize / 2;
+                bMid = lowerBound(bLo, bHi, element(aMid));   // equal b's stay after a's pivot
+                pivotIndex = aMid;
+            } else {
+                bMid = bLo + bSize / 2;
+                aMid = upperBound(aLo, aHi, element(bMid));   // equal a's stay before b's pivot
+                pivotIndex = bMid;
+            }
+
+            final int pivotDst = dstLo + (aMid - aLo) + (bMid - bLo);
+            dst[pivotDst] = src[pivotIndex];
+
+            invokeAll(
+                new MergeTwoTask<>(src, aLo, aMid, bLo, bMid, dst, dstLo, comparator, cutoff),
+                new MergeTwoTask<>(src, pivotFromA ? aMid + 1 : aMid, aHi, pivotFromA ? bMid : bMid + 1, bHi,
+                    dst, pivotDst + 1, comparator, cutoff)
+            );
+        }
+
+        private void mergeSequentially() {
+            int a = aLo;
+            int b = bLo;
+            int d = dstLo;
+            while (a < aHi && b < bHi)
+                dst[d++] = comparator.compare(element(b), element(a)) < 0 ? src[b++] : src[a++];
+            while (a < aHi)
+                dst[d++] = src[a++];
+            while (b < bHi)
+                dst[d++] = src[b++];
+        }
+
+        /** @return the first index in {@code [from, to)} whose element is {@code >= key}, or {@code to} */
+        private int lowerBound(int from, int to, T key) {
+            while (from < to) {
+                final int mid = (from + to) >>> 1;
+                if (comparator.compare(element(mid), key) < 0)
+                    from = mid + 1;
+                else
+                    to = mid;
+            }
+            return from;
+        }
+
+        /** @return the first index in {@code [from, to)} whose element is {@code > key}, or {@code to} */
+        private int upperBound(int from, int to, T key) {
+            while (from < to) {
+                final int mid = (from + to) >>> 1;
+                if (comparator.compare(element(mid), key) <= 0)
+                    from = mid + 1;
+                else
+                    to = mid;
+            }
+            return from;
+        }
+
+        @SuppressWarnings("unchecked")
+        private T element(int index) {
+            return (T) src[index];
+        }
+    }
+
+    /**
+     * Min-heap of input indexes, ordered by each input's current head element and then by input index (for
+     * stability).
+     */
+    private static final class KWayMergeIterator<T> implements Iterator<T> {
+
+        private final Comparator<? super T> comparator;
+        private final List<Iterator<? extends T>> sources;
+        private final List<T> heads;  // current element of each input that's still in the heap
+
+        private final int[] heap;
+        private int heapSize = 0;
+
+        KWayMergeIterator(List<? extends Iterable<? extends T>> pSources, Comparator<? super T> pComparator) {
+            comparator = pComparator;
+            sources = new ArrayList<>(pSources.size());
+            heads = new ArrayList<>(pSources.size());
+            heap = new int[pSources.size()];
+
+            for (final Iterable<? extends T> source : pSources) {
+                final Iterator<? extends T> iterator = source.iterator();
+                final int sourceIndex = sources.size();
+                sources.add(iterator);
+
+                if (iterator.hasNext()) {
+                    heads.add(iterator.next());
+                    heap[heapSize++] = sourceIndex;
+                } else {
+                    heads.add(null);
+                }
+            }
+
+            for (int i = heapSize / 2 - 1; i >= 0; i--)
+                siftDown(i);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return heapSize > 0;
+        }
+
+        @Override
+        public T next() {
+            if (heapSize == 0)
+                throw new NoSuchElementException();
+
+            final int sourceIndex = heap[0];
+            final T element = heads.get(sourceIndex);
+
+            final Iterator<? extends T> source = sources.get(sourceIndex);
+            if (source.hasNext()) {
+                heads.set(sourceIndex, source.next());
+            } else {
+                heads.set(sourceIndex, null);
+                heap[0] = heap[--heapSize];
+            }
+            if (heapSize > 0)
+                siftDown(0);
+
+            return element;
+        }
+
+        private void siftDown(int position) {
+            final int sourceIndex = heap[position];
+            while (true) {
+                int child = 2 * position + 1;
+                if (child >= heapSize)
+                    break;
+                if (child + 1 < heapSize && less(heap[child + 1], heap[child]))
+                    child++;
+                if (!less(heap[child], sourceIndex))
+                    break;
+                heap[position] = heap[child];
+                position = child;
+            }
+            heap[position] = sourceIndex;
+        }
+
+        private boolean less(int sourceA, int sourceB) {
+            final int comparison = comparator.compare(heads.get(sourceA), heads.get(sourceB));
+            return comparison < 0 || (comparison == 0 && sourceA < sourceB);
+        }
     }
 }
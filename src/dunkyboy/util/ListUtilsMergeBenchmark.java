@@ -0,0 +1,117 @@
+package dunkyboy.util;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+
+/**
+ * Times {@link ListUtils}' sequential and parallel merges of k sorted lists (k = 2, 4, .. maxK) of N elements in
+ * total, against the TreeSet + count map approach it used to take.
+ */
+public class ListUtilsMergeBenchmark {
+
+    public static void main(String[] args) {
+
+        final int maxK;
+        final int totalElements;
+        final int maxTreeSetElements;
+        try {
+            maxK               = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+            totalElements      = args.length > 1 ? Integer.parseInt(args[1]) : 10_000_000;  // up to 100_000_000 with enough heap
+            maxTreeSetElements = args.length > 2 ? Integer.parseInt(args[2]) : 10_000_000;  // TreeSet path is slow and heavy
+        } catch (final Exception e) {
+            System.out.println("Optional args: maxK (int), totalElements (int), maxTreeSetElements (int)");
+            System.exit(1);
+            return;
+        }
+
+        System.out.println("Starting merge benchmark at " + new Date() + ":");
+        System.out.println("  max k:           " + maxK);
+        System.out.println("  total elements:  " + totalElements);
+        System.out.println("  parallelism:     " + ForkJoinPool.commonPool().getParallelism());
+        System.out.println();
+
+        // warm up the VM
+        for (int i = 0; i < 5; i++) {
+            final List<List<Integer>> lists = sortedLists(16, 200_000);
+            treeSetMerge(lists, Comparator.naturalOrder());
+            ListUtils.mergeSortedLists(lists);
+            ListUtils.mergeSortedListsParallel(lists, Comparator.naturalOrder());
+        }
+
+        System.out.println(String.format("%6s %12s %14s %14s %14s %10s %10s",
+            "k", "N", "treeset (ms)", "k-way (ms)", "parallel (ms)", "vs tree", "vs k-way"));
+
+        for (int k = 2; k <= maxK; k *= 2) {
+            final List<List<Integer>> lists = sortedLists(k, totalElements);
+
+            final double treeSetMillis = totalElements <= maxTreeSetElements
+                ? time(() -> treeSetMerge(lists, Comparator.naturalOrder()))
+                : Double.NaN;
+            final double kWayMillis = time(() -> ListUtils.mergeSortedLists(lists));
+            final double parallelMillis = time(() -> ListUtils.mergeSortedListsParallel(lists, Comparator.naturalOrder()));
+
+            System.out.println(String.format("%6d %,12d %14.1f %14.1f %14.1f %9.1fx %9.1fx",
+                k, totalElements, treeSetMillis, kWayMillis, parallelMillis,
+                treeSetMillis / parallelMillis, kWayMillis / parallelMillis));
+        }
+    }
+
+    private static double time(Runnable merge) {
+        System.gc();  // don't charge the previous run's garbage to this one
+        final long startNanos = System.nanoTime();
+        merge.run();
+        return (System.nanoTime() - startNanos) / 1_000_000.0;
+    }
+
+    private static List<List<Integer>> sortedLists(int k, int totalElements) {
+        final Random random = new Random(k);
+        final List<List<Integer>> lists = new ArrayList<>(k);
+        for (int i = 0; i < k; i++) {
+            final int[] values = new int[totalElements / k + (i < totalElements % k ? 1 : 0)];
+            for (int j = 0; j < values.length; j++)
+                values[j] = random.nextInt();
+            Arrays.sort(values);
+
+            final List<Integer> list = new ArrayList<>(values.length);
+            for (final int value : values)
+                list.add(value);
+            lists.add(list);
+        }
+        return lists;
+    }
+
+    /**
+     * What {@link ListUtils#mergeSortedLists(List, Comparator)} used to do, kept as the baseline.
+     */
+    private static <T> List<T> treeSetMerge(List<List<T>> pLists, final Comparator<T> pComparator) {
+
+        final TreeSet<T> treeSet = new TreeSet<T>(pComparator);
+
+        final Map<T, Long> counts = new HashMap<>();
+
+        for (final List<T> thisList : pLists) {
+            treeSet.addAll(thisList);
+            for (T thisElement : thisList) {
+                treeSet.add(thisElement);
+
+                Long count = counts.get(thisElement);
+                if (count == null) {
+                    count = 0L;
+                }
+                counts.put(thisElement, ++count);
+            }
+        }
+
+        final List<T> mergedList = new LinkedList<>();
+
+        for (T element : treeSet) {
+            final long count = counts.get(element);
+            for (long i = 0; i < count; i++) {
+                mergedList.add(element);
+            }
+        }
+
+        return mergedList;
+    }
+}
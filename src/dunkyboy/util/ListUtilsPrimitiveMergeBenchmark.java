@@ -0,0 +1,92 @@
+package dunkyboy.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.function.Supplier;
+
+
+/**
+ * Compares merging k sorted runs of longs through the boxed {@code List<Long>} API against the primitive
+ * {@link ListUtils#mergeSorted(long[][])} and {@link ListUtils#mergeSortedDistinct(long[][], long[], long[])}, in
+ * elements merged per second and bytes allocated per element (on the merging thread).
+ */
+public class ListUtilsPrimitiveMergeBenchmark {
+
+    private static final com.sun.management.ThreadMXBean threadMxBean =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static long hashOfResultsToEnsureCompilerDoesntOptimizeMyWork = 0;
+
+    public static void main(String[] args) {
+
+        final int k;
+        final int totalElements;
+        final int repetitions;
+        try {
+            k             = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+            totalElements = args.length > 1 ? Integer.parseInt(args[1]) : 10_000_000;
+            repetitions   = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        } catch (final Exception e) {
+            System.out.println("Optional args: k (int), totalElements (int), repetitions (int)");
+            System.exit(1);
+            return;
+        }
+
+        System.out.println("Starting primitive merge benchmark at " + new Date() + ":");
+        System.out.println("  k:              " + k);
+        System.out.println("  total elements: " + totalElements);
+        System.out.println("  repetitions:    " + repetitions);
+        System.out.println();
+
+        final long[][] arrays = new long[k][];
+        final List<List<Long>> lists = new ArrayList<>(k);
+        final Random random = new Random(k);
+        for (int i = 0; i < k; i++) {
+            arrays[i] = new long[totalElements / k + (i < totalElements % k ? 1 : 0)];
+            for (int j = 0; j < arrays[i].length; j++)
+                arrays[i][j] = System.currentTimeMillis() + random.nextInt(1_000_000);  // timestamp-ish, with repeats
+            Arrays.sort(arrays[i]);
+
+            final List<Long> list = new ArrayList<>(arrays[i].length);
+            for (final long value : arrays[i])
+                list.add(value);
+            lists.add(list);
+        }
+
+        final long[] values = new long[totalElements];
+        final long[] counts = new long[totalElements];
+
+        System.out.println(String.format("%-22s %18s %18s", "merge", "M elements / sec", "bytes / element"));
+        run("boxed List<Long>", totalElements, repetitions, () -> ListUtils.mergeSortedLists(lists));
+        run("long[][]", totalElements, repetitions, () -> ListUtils.mergeSorted(arrays));
+        run("long[][] into out", totalElements, repetitions, () -> {
+            ListUtils.mergeSorted(arrays, values);
+            return values;
+        });
+        run("long[][] distinct", totalElements, repetitions, () -> ListUtils.mergeSortedDistinct(arrays, values, counts));
+
+        System.out.println("  (hash for compiler's benefit: " + hashOfResultsToEnsureCompilerDoesntOptimizeMyWork + ")");
+    }
+
+    private static void run(String name, int totalElements, int repetitions, Supplier<Object> merge) {
+        // warm up the VM
+        for (int i = 0; i < 3; i++)
+            merge.get();
+
+        final long threadId = Thread.currentThread().getId();
+        final long startBytes = threadMxBean.getThreadAllocatedBytes(threadId);
+        final long startNanos = System.nanoTime();
+
+        for (int i = 0; i < repetitions; i++)
+            hashOfResultsToEnsureCompilerDoesntOptimizeMyWork += System.identityHashCode(merge.get());
+
+        final long elapsedNanos = System.nanoTime() - startNanos;
+        final long allocatedBytes = threadMxBean.getThreadAllocatedBytes(threadId) - startBytes;
+
+        final double elements = (double) totalElements * repetitions;
+        System.out.println(String.format("%-22s %18.1f %18.2f",
+            name,
+            elements / (elapsedNanos / 1_000.0),
+            allocatedBytes / elements));
+    }
+}
@@ -1,28 +1,26 @@
 package dunkyboy.util;
 
 /**
+ * Average of a stream of values, backed by {@link StreamingStats} so the sum is exact and never overflows.
+ *
  * Created by darmstrong on 2/10/17.
  */
-public class RunningAverage {
-    private long valueCount = 0;
-    private long runningAverage = 0;
+public class RunningAverage implements Average {
+    private final StreamingStats stats = new StreamingStats();
 
+    @Override
     public long addValue(long value) {
-
-        long currentTotal = valueCount * runningAverage;
-        long newTotal = currentTotal + value;
-
-        valueCount++;
-        runningAverage = newTotal / valueCount;
-
-        return runningAverage;
+        stats.add(value);
+        return stats.getTruncatedMean();
     }
 
+    @Override
     public long get() {
-        return runningAverage;
+        return stats.getTruncatedMean();
     }
 
+    @Override
     public long getCount() {
-        return valueCount;
+        return stats.getCount();
     }
 }
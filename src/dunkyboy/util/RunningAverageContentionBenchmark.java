@@ -0,0 +1,95 @@
+package dunkyboy.util;
+
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Supplier;
+
+
+/**
+ * Hammers a shared {@link Average} from 1..64 threads and prints the aggregate add throughput, to compare the
+ * old fully-synchronized implementation against the striped {@link ThreadsafeRunningAverage}.
+ */
+public class RunningAverageContentionBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+
+        final int maxThreads;
+        final int valuesPerThread;
+        try {
+            maxThreads      = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+            valuesPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 2_000_000;
+        } catch (final Exception e) {
+            System.out.println("Optional args: maxThreads (int), valuesPerThread (int)");
+            System.exit(1);
+            return;
+        }
+
+        System.out.println("Starting contention benchmark at " + new Date() + ":");
+        System.out.println("  max threads:       " + maxThreads);
+        System.out.println("  values per thread: " + valuesPerThread);
+        System.out.println("  cores:             " + Runtime.getRuntime().availableProcessors());
+        System.out.println();
+
+        // warm up the VM
+        run(SynchronizedRunningAverage::new, 4, valuesPerThread);
+        run(ThreadsafeRunningAverage::new, 4, valuesPerThread);
+
+        System.out.println(String.format("%8s %22s %22s", "threads", "synchronized (ops/s)", "striped (ops/s)"));
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            final double synchronizedOpsPerSec = run(SynchronizedRunningAverage::new, threads, valuesPerThread);
+            final double stripedOpsPerSec = run(ThreadsafeRunningAverage::new, threads, valuesPerThread);
+            System.out.println(String.format("%8d %,22.0f %,22.0f", threads, synchronizedOpsPerSec, stripedOpsPerSec));
+        }
+    }
+
+    private static double run(Supplier<Average> averages, int threadCount, int valuesPerThread)
+            throws InterruptedException {
+
+        final Average average = averages.get();
+        final CountDownLatch start = new CountDownLatch(1);
+        final Thread[] threads = new Thread[threadCount];
+
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (final InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                for (int v = 0; v < valuesPerThread; v++)
+                    average.addValue(v);
+            }, "Recorder-" + i);
+            threads[i].start();
+        }
+
+        final long startNanos = System.nanoTime();
+        start.countDown();
+        for (final Thread thread : threads)
+            thread.join();
+        final long elapsedNanos = System.nanoTime() - startNanos;
+
+        final long expectedCount = (long) threadCount * valuesPerThread;
+        if (average.getCount() != expectedCount)
+            throw new IllegalStateException("expected " + expectedCount + " values, got " + average.getCount());
+
+        return expectedCount / (elapsedNanos / 1_000_000_000.0);
+    }
+
+    /**
+     * What {@link ThreadsafeRunningAverage} used to be: one monitor around everything.
+     */
+    private static class SynchronizedRunningAverage extends RunningAverage {
+
+        public synchronized long addValue(long value) {
+            return super.addValue(value);
+        }
+
+        public synchronized long get() {
+            return super.get();
+        }
+
+        public synchronized long getCount() {
+            return super.getCount();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package dunkyboy.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import static java.nio.file.StandardOpenOption.*;
+
+
+/**
+ * Writes k sorted run files to local disk, merges them with {@link SortedRunFileMerger}, and reports MB/s.
+ *
+ * Records are {@code recordBytes} long, starting with a big-endian, non-negative, increasing-per-run long key and
+ * padded with random bytes, so unsigned lexicographic order over the whole record is key order. After timing the
+ * merge, an untimed sequential scan checks that the merged file really is in that order.
+ */
+public class SortedRunFileMergeBenchmark {
+
+    public static void main(String[] args) throws IOException {
+
+        final Path dir;
+        final int runCount;
+        final long totalMegabytes;
+        final int recordBytes;
+        final boolean lengthPrefixed;
+        try {
+            dir            = Paths.get(args.length > 0 ? args[0] : System.getProperty("java.io.tmpdir"));
+            runCount       = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+            totalMegabytes = args.length > 2 ? Long.parseLong(args[2]) : 2_048;
+            recordBytes    = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+            lengthPrefixed = args.length > 4 && args[4].equals("prefixed");
+            if (recordBytes < 8)
+                throw new IllegalArgumentException("records need room for an 8 byte key");
+        } catch (final Exception e) {
+            System.out.println("Optional args: dir (path), runs (int), totalMegabytes (long), recordBytes (int, >= 8), format (fixed|prefixed)");
+            System.exit(1);
+            return;
+        }
+
+        System.out.println("Starting sorted run merge benchmark at " + new Date() + ":");
+        System.out.println("  dir:          " + dir.toAbsolutePath());
+        System.out.println("  runs:         " + runCount);
+        System.out.println("  total size:   " + totalMegabytes + " MB");
+        System.out.println("  record bytes: " + recordBytes);
+        System.out.println("  format:       " + (lengthPrefixed ? "length-prefixed" : "fixed-width"));
+
+        final long bytesPerRun = totalMegabytes * 1_000_000 / runCount;
+        final int storedRecordBytes = recordBytes + (lengthPrefixed ? 4 : 0);
+        final long recordsPerRun = bytesPerRun / storedRecordBytes;
+
+        final List<Path> runs = new ArrayList<>(runCount);
+        final Path output = Files.createTempFile(dir, "merged-", ".run");
+        try {
+            final long writeStartNanos = System.nanoTime();
+            for (int i = 0; i < runCount; i++)
+                runs.add(writeRun(dir, i, recordsPerRun, recordBytes, lengthPrefixed));
+            System.out.println(String.format("  wrote runs in %.1f s", (System.nanoTime() - writeStartNanos) / 1e9));
+
+            final SortedRunFileMerger merger = lengthPrefixed
+                ? SortedRunFileMerger.lengthPrefixed(SortedRunFileMerger.UNSIGNED_LEXICOGRAPHIC)
+                : SortedRunFileMerger.fixedWidth(recordBytes, SortedRunFileMerger.UNSIGNED_LEXICOGRAPHIC);
+
+            final long startNanos = System.nanoTime();
+            final long recordCount = merger.merge(runs, output);
+            final double elapsedSecs = (System.nanoTime() - startNanos) / 1e9;
+
+            final long mergedBytes = Files.size(output);
+            if (recordCount != recordsPerRun * runCount || mergedBytes != recordCount * storedRecordBytes)
+                throw new IllegalStateException("merged " + recordCount + " records / " + mergedBytes + " bytes");
+
+            final long sortedCount = verifySorted(output, recordBytes, lengthPrefixed);
+            if (sortedCount != recordCount)
+                throw new IllegalStateException("scanned " + sortedCount + " records, merged " + recordCount);
+
+            System.out.println();
+            System.out.println(String.format("merged %,d records (%,d MB) in %.2f s: %.1f MB/s",
+                recordCount, mergedBytes / 1_000_000, elapsedSecs, mergedBytes / 1e6 / elapsedSecs));
+
+        } finally {
+            for (final Path run : runs)
+                Files.deleteIfExists(run);
+            Files.deleteIfExists(output);
+        }
+    }
+
+    /**
+     * Reads {@code merged} front to back and checks each record is no less than the one before it.
+     *
+     * @return how many records there were
+     */
+    private static long verifySorted(Path merged, int recordBytes, boolean lengthPrefixed) throws IOException {
+        final int storedRecordBytes = recordBytes + (lengthPrefixed ? 4 : 0);
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(4 << 20);
+        ByteBuffer previous = ByteBuffer.allocate(recordBytes);
+        ByteBuffer current = ByteBuffer.allocate(recordBytes);
+
+        long recordCount = 0;
+        try (FileChannel channel = FileChannel.open(merged, READ)) {
+            while (channel.read(buffer) >= 0 || buffer.position() > 0) {
+                buffer.flip();
+                while (buffer.remaining() >= storedRecordBytes) {
+                    if (lengthPrefixed && buffer.getInt() != recordBytes)
+                        throw new IllegalStateException("bad length prefix on record " + recordCount);
+
+                    final int limit = buffer.limit();
+                    current.clear();
+                    buffer.limit(buffer.position() + recordBytes);
+                    current.put(buffer);
+                    buffer.limit(limit);
+
+                    if (recordCount > 0 && SortedRunFileMerger.UNSIGNED_LEXICOGRAPHIC.compare(
+                            previous, 0, recordBytes, current, 0, recordBytes) > 0)
+                        throw new IllegalStateException("record " + recordCount + " is out of order");
+
+                    final ByteBuffer swap = previous;
+                    previous = current;
+                    current = swap;
+                    recordCount++;
+                }
+                if (buffer.hasRemaining() && channel.position() == channel.size())
+                    throw new IllegalStateException("trailing partial record after " + recordCount + " records");
+                buffer.compact();
+            }
+        }
+        return recordCount;
+    }
+
+    private static Path writeRun(Path dir, int runIndex, long recordCount, int recordBytes, boolean lengthPrefixed)
+            throws IOException {
+
+        final Path run = Files.createTempFile(dir, "run-" + runIndex + "-", ".run");
+        final Random random = new Random(runIndex);
+        final byte[] padding = new byte[recordBytes - 8];
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(4 << 20);
+
+        try (FileChannel channel = FileChannel.open(run, WRITE, TRUNCATE_EXISTING)) {
+            long key = 0;
+            for (long i = 0; i < recordCount; i++) {
+                if (buffer.remaining() < recordBytes + 4) {
+                    buffer.flip();
+                    while (buffer.hasRemaining())
+                        channel.write(buffer);
+                    buffer.clear();
+                }
+
+                key += 1 + random.nextInt(1_000);  // strictly increasing, so padding never decides order within a run
+                random.nextBytes(padding);
+
+                if (lengthPrefixed)
+                    buffer.putInt(recordBytes);
+                buffer.putLong(key);
+                buffer.put(padding);
+            }
+            buffer.flip();
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+        }
+        return run;
+    }
+}
@@ -0,0 +1,254 @@
+package dunkyboy.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.List;
+
+import static java.nio.file.StandardOpenOption.*;
+
+
+/**
+ * External-memory counterpart to {@link ListUtils#mergeSortedLists}: k-way merges sorted run files into one output
+ * file, for runs too big to hold on-heap.
+ *
+ * Each run is read through a sliding {@link MappedByteBuffer} window, and records are compared and copied straight
+ * out of the mapped windows into one direct output buffer, so nothing is allocated per record and heap use is
+ * bounded by the number of runs. Records are either fixed-width or length-prefixed (a big-endian int length, then
+ * that many bytes). The merge is stable: equal records come out in run order.
+ *
+ * Mapped windows are never explicitly unmapped: Java 8 has no supported way to do it, so each window's mapping lasts
+ * until its buffer is garbage collected, even after the run's channel is closed. A merge can therefore hold up to a
+ * few windows per run of address space (and, on Windows, locks on the run files) until the next GC notices them.
+ */
+public class SortedRunFileMerger {
+
+    /**
+     * Compares two records in place. For length-prefixed records, the offsets and lengths cover the payload only.
+     * Implementations must use absolute gets and leave the buffers' positions and limits alone.
+     */
+    @FunctionalInterface
+    public interface RecordComparator {
+        int compare(ByteBuffer a, int aOffset, int aLength, ByteBuffer b, int bOffset, int bLength);
+    }
+
+    public static final RecordComparator UNSIGNED_LEXICOGRAPHIC = (a, aOffset, aLength, b, bOffset, bLength) -> {
+        final int length = Math.min(aLength, bLength);
+        for (int i = 0; i < length; i++) {
+            final int comparison = Integer.compare(a.get(aOffset + i) & 0xff, b.get(bOffset + i) & 0xff);
+            if (comparison != 0)
+                return comparison;
+        }
+        return Integer.compare(aLength, bLength);
+    };
+
+    public static final int DEFAULT_MAP_WINDOW_BYTES = 64 << 20;
+    public static final int DEFAULT_OUTPUT_BUFFER_BYTES = 4 << 20;
+
+    private static final int LENGTH_PREFIX_BYTES = 4;
+
+    private final int fixedRecordBytes;  // 0 means length-prefixed
+    private final RecordComparator comparator;
+    private final int mapWindowBytes;
+    private final int outputBufferBytes;
+
+    private SortedRunFileMerger(int fixedRecordBytes, RecordComparator comparator, int mapWindowBytes,
+                                int outputBufferBytes) {
+        if (mapWindowBytes <= LENGTH_PREFIX_BYTES || outputBufferBytes <= LENGTH_PREFIX_BYTES)
+            throw new IllegalArgumentException("buffers too small: " + mapWindowBytes + ", " + outputBufferBytes);
+
+        this.fixedRecordBytes = fixedRecordBytes;
+        this.comparator = comparator;
+        this.mapWindowBytes = mapWindowBytes;
+        this.outputBufferBytes = outputBufferBytes;
+    }
+
+    public static SortedRunFileMerger fixedWidth(int recordBytes, RecordComparator comparator) {
+        return fixedWidth(recordBytes, comparator, DEFAULT_MAP_WINDOW_BYTES, DEFAULT_OUTPUT_BUFFER_BYTES);
+    }
+
+    public static SortedRunFileMerger fixedWidth(int recordBytes, RecordComparator comparator, int mapWindowBytes,
+                                                 int outputBufferBytes) {
+        if (recordBytes <= 0)
+            throw new IllegalArgumentException("recordBytes must be positive: " + recordBytes);
+        return new SortedRunFileMerger(recordBytes, comparator, mapWindowBytes, outputBufferBytes);
+    }
+
+    public static SortedRunFileMerger lengthPrefixed(RecordComparator comparator) {
+        return lengthPrefixed(comparator, DEFAULT_MAP_WINDOW_BYTES, DEFAULT_OUTPUT_BUFFER_BYTES);
+    }
+
+    public static SortedRunFileMerger lengthPrefixed(RecordComparator comparator, int mapWindowBytes,
+                                                     int outputBufferBytes) {
+        return new SortedRunFileMerger(0, comparator, mapWindowBytes, outputBufferBytes);
+    }
+
+    /**
+     * @return the number of records written to {@code output}, which is created or truncated
+     */
+    public long merge(List<Path> runs, Path output) throws IOException {
+        final RunCursor[] cursors = new RunCursor[runs.size()];
+        try (FileChannel out = FileChannel.open(output, CREATE, TRUNCATE_EXISTING, WRITE)) {
+
+            final int[] heap = new int[runs.size()];
+            int heapSize = 0;
+            for (int i = 0; i < runs.size(); i++) {
+                cursors[i] = new RunCursor(FileChannel.open(runs.get(i), READ));
+                if (cursors[i].advance())
+                    heap[heapSize++] = i;
+            }
+            for (int i = heapSize / 2 - 1; i >= 0; i--)
+                siftDown(heap, heapSize, i, cursors);
+
+            final ByteBuffer outBuffer = ByteBuffer.allocateDirect(outputBufferBytes);
+            long recordCount = 0;
+
+            while (heapSize > 0) {
+                final RunCursor cursor = cursors[heap[0]];
+                write(cursor, outBuffer, out);
+                recordCount++;
+
+                if (!cursor.advance())
+                    heap[0] = heap[--heapSize];
+                if (heapSize > 0)
+                    siftDown(heap, heapSize, 0, cursors);
+            }
+
+            flush(outBuffer, out);
+            return recordCount;
+
+        } finally {
+            for (final RunCursor cursor : cursors) {
+                if (cursor != null)
+                    cursor.channel.close();
+            }
+        }
+    }
+
+    private void write(RunCursor cursor, ByteBuffer outBuffer, FileChannel out) throws IOException {
+        if (fixedRecordBytes == 0) {
+            if (outBuffer.remaining() < LENGTH_PREFIX_BYTES)
+                flush(outBuffer, out);
+            outBuffer.putInt(cursor.recordLength);
+        }
+
+        final ByteBuffer record = cursor.record();
+        if (outBuffer.remaining() < record.remaining())
+            flush(outBuffer, out);
+
+        if (outBuffer.remaining() >= record.remaining()) {
+            outBuffer.put(record);
+        } else {
+            while (record.hasRemaining())  // bigger than the whole output buffer
+                out.write(record);
+        }
+    }
+
+    private static void flush(ByteBuffer outBuffer, FileChannel out) throws IOException {
+        outBuffer.flip();
+        while (outBuffer.hasRemaining())
+            out.write(outBuffer);
+        outBuffer.clear();
+    }
+
+    private void siftDown(int[] heap, int heapSize, int position, RunCursor[] cursors) {
+        final int run = heap[position];
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= heapSize)
+                break;
+            if (child + 1 < heapSize && less(heap[child + 1], heap[child], cursors))
+                child++;
+            if (!less(heap[child], run, cursors))
+                break;
+            heap[position] = heap[child];
+            position = child;
+        }
+        heap[position] = run;
+    }
+
+    private boolean less(int runA, int runB, RunCursor[] cursors) {
+        final RunCursor a = cursors[runA];
+        final RunCursor b = cursors[runB];
+        final int comparison = comparator.compare(
+            a.window, a.recordOffset, a.recordLength,
+            b.window, b.recordOffset, b.recordLength);
+        return comparison < 0 || (comparison == 0 && runA < runB);
+    }
+
+    /**
+     * Current record of one run, and the mapped window it sits in. The window is remapped (at the current record) when
+     * a record doesn't fit in what's left of it.
+     */
+    private final class RunCursor {
+
+        final FileChannel channel;
+        final long fileSize;
+
+        MappedByteBuffer window;
+        ByteBuffer windowView;  // duplicate of window whose position/limit get moved around for copying records out
+        long windowStart = 0;
+
+        long nextRecordPosition = 0;
+        int recordOffset;  // within window
+        int recordLength;
+
+        RunCursor(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.fileSize = channel.size();
+        }
+
+        boolean advance() throws IOException {
+            final long position = nextRecordPosition;
+            if (position >= fileSize)
+                return false;
+
+            final int headerBytes;
+            if (fixedRecordBytes != 0) {
+                headerBytes = 0;
+                recordLength = fixedRecordBytes;
+            } else {
+                headerBytes = LENGTH_PREFIX_BYTES;
+                ensureMapped(position, headerBytes);
+                recordLength = window.getInt((int) (position - windowStart));
+                if (recordLength < 0)
+                    throw new IOException("negative record length " + recordLength + " at offset " + position);
+            }
+
+            final long bytes = (long) headerBytes + recordLength;
+            ensureMapped(position, bytes);
+            recordOffset = (int) (position - windowStart) + headerBytes;
+            nextRecordPosition = position + bytes;
+            return true;
+        }
+
+        ByteBuffer record() {
+            windowView.clear();
+            windowView.position(recordOffset);
+            windowView.limit(recordOffset + recordLength);
+            return windowView;
+        }
+
+        /**
+         * Maps a new window starting at {@code position} unless the current one already covers {@code bytes} from
+         * there. The old window isn't unmapped, just dropped for the GC (see the class comment).
+         */
+        private void ensureMapped(long position, long bytes) throws IOException {
+            if (window != null && position >= windowStart && position + bytes <= windowStart + window.capacity())
+                return;
+
+            if (position + bytes > fileSize)
+                throw new IOException("truncated record at offset " + position + ": needs " + bytes + " bytes, " +
+                    (fileSize - position) + " left");
+            if (bytes > Integer.MAX_VALUE)
+                throw new IOException("record at offset " + position + " is too big to map: " + bytes + " bytes");
+
+            final long size = Math.min(Math.max(mapWindowBytes, bytes), fileSize - position);
+            window = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+            windowView = window.duplicate();
+            windowStart = position;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package dunkyboy.util;
+
+import java.math.BigInteger;
+
+/**
+ * Allocation-free streaming statistics over {@code long} samples: count, exact sum, min, max, and a Welford
+ * mean/variance.
+ *
+ * The sum is kept as a 128-bit integer (two longs), so it can't overflow or lose precision no matter how many
+ * nanosecond latencies go into it. Instances from different threads or shards can be combined with {@link #merge}.
+ *
+ * Not thread-safe.
+ */
+public class StreamingStats {
+
+    private long count = 0;
+
+    private long sumHigh = 0;  // upper 64 bits of the two's complement 128-bit sum
+    private long sumLow = 0;   // lower 64 bits, unsigned
+
+    private long min = Long.MAX_VALUE;
+    private long max = Long.MIN_VALUE;
+
+    private long shift = 0;    // first sample; Welford runs on (value - shift) so large, clustered values keep precision
+    private double mean = 0;   // mean of (value - shift)
+    private double m2 = 0;     // sum of squared differences from the mean
+
+    public void add(long value) {
+        if (count++ == 0)
+            shift = value;
+
+        final long newSumLow = sumLow + value;
+        sumHigh += (value >> 63) + (Long.compareUnsigned(newSumLow, sumLow) < 0 ? 1 : 0);
+        sumLow = newSumLow;
+
+        if (value < min)
+            min = value;
+        if (value > max)
+            max = value;
+
+        final double shifted = (double) (value - shift);
+        final double delta = shifted - mean;
+        mean += delta / count;
+        m2 += delta * (shifted - mean);
+    }
+
+    /**
+     * Folds {@code other}'s samples into this, as if they'd all been added here (Chan et al.'s parallel variance).
+     */
+    public void merge(StreamingStats other) {
+        if (other.count == 0)
+            return;
+
+        if (count == 0) {
+            copyFrom(other);
+            return;
+        }
+
+        final long newCount = count + other.count;
+
+        final long newSumLow = sumLow + other.sumLow;
+        sumHigh += other.sumHigh + (Long.compareUnsigned(newSumLow, sumLow) < 0 ? 1 : 0);
+        sumLow = newSumLow;
+
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+
+        final double delta = (other.mean + (double) (other.shift - shift)) - mean;
+        mean += delta * other.count / newCount;
+        m2 += other.m2 + delta * delta * ((double) count * other.count / newCount);
+
+        count = newCount;
+    }
+
+    public void copyFrom(StreamingStats other) {
+        count = other.count;
+        sumHigh = other.sumHigh;
+        sumLow = other.sumLow;
+        min = other.min;
+        max = other.max;
+        shift = other.shift;
+        mean = other.mean;
+        m2 = other.m2;
+    }
+
+    public void reset() {
+        copyFrom(new StreamingStats());
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public BigInteger getSum() {
+        return toBigInteger(sumHigh, sumLow);
+    }
+
+    /**
+     * @return the exact sum divided by the count, truncated toward zero like integer division; 0 if empty
+     */
+    public long getTruncatedMean() {
+        return divide(sumHigh, sumLow, count);
+    }
+
+    /**
+     * @return the (floating point) mean; 0 if empty
+     */
+    public double getMean() {
+        return count == 0 ? 0 : shift + mean;
+    }
+
+    /**
+     * @return the population variance; 0 if fewer than 2 samples
+     */
+    public double getVariance() {
+        return count < 2 ? 0 : m2 / count;
+    }
+
+    public double getStdDev() {
+        return Math.sqrt(getVariance());
+    }
+
+    /**
+     * @return the smallest value added, or {@link Long#MAX_VALUE} if empty
+     */
+    public long getMin() {
+        return min;
+    }
+
+    /**
+     * @return the largest value added, or {@link Long#MIN_VALUE} if empty
+     */
+    public long getMax() {
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return "count: " + count + ", mean: " + getMean() + ", stddev: " + getStdDev() + ", min: " + min + ", max: " + max;
+    }
+
+    /**
+     * Divides a 128-bit sum by a count, truncating toward zero. Only goes through {@link BigInteger} when the sum
+     * has actually outgrown a long.
+     */
+    static long divide(long sumHigh, long sumLow, long count) {
+        if (count == 0)
+            return 0;
+        if (sumHigh == (sumLow >> 63))  // fits in a long
+            return sumLow / count;
+        return toBigInteger(sumHigh, sumLow).divide(BigInteger.valueOf(count)).longValue();
+    }
+
+    private static BigInteger toBigInteger(long high, long low) {
+        return BigInteger.valueOf(high).shiftLeft(64).add(new BigInteger(Long.toUnsignedString(low)));
+    }
+}
@@ -1,19 +1,139 @@
 package dunkyboy.util;
 
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
 /**
+ * Thread-safe {@link Average} that doesn't serialize its writers.
+ *
+ * Each recording thread gets its own sum/count cell, so {@link #addValue} never touches memory written by another
+ * thread. Readers sum over all the cells. A cell's sum and count are guarded by a per-cell sequence number (seqlock)
+ * so a reader never sees a sum without its matching count. Sums are 128-bit, same as {@link StreamingStats}.
+ *
+ * Cells only weakly reference their threads: once a thread has died, the next read (or the next new thread's first
+ * value) folds its cell into a retired total and drops it, so a pool that keeps replacing threads doesn't leak a cell
+ * per thread. Readers take a lock for that, writers never do.
+ *
  * Created by darmstrong on 2/10/17.
  */
-public class ThreadsafeRunningAverage extends RunningAverage {
+public class ThreadsafeRunningAverage implements Average {
+
+    private final Queue<Cell> cells = new ConcurrentLinkedQueue<>();  // cells of threads that may still be recording
+
+    private final ThreadLocal<Cell> threadCell = ThreadLocal.withInitial(() -> {
+        final Cell cell = new Cell(Thread.currentThread());
+        synchronized (this) {
+            retireDeadCells();
+            cells.add(cell);
+        }
+        return cell;
+    });
+
+    // dead threads' cells, folded together; guarded by this
+    private long retiredSumHigh = 0;
+    private long retiredSumLow = 0;
+    private long retiredCount = 0;
 
-    public synchronized long addValue(long value) {
-        return super.addValue(value);
+    /**
+     * @return the running average of the calling thread's values only - use {@link #get()} for the overall average,
+     *         which has to visit every thread's cell
+     */
+    @Override
+    public long addValue(long value) {
+        final Cell cell = threadCell.get();
+        cell.add(value);
+        return StreamingStats.divide(cell.sumHigh, cell.sumLow, cell.count);  // only this thread writes the cell
     }
 
+    @Override
     public synchronized long get() {
-        return super.get();
+        retireDeadCells();
+        long sumHigh = retiredSumHigh;
+        long sumLow = retiredSumLow;
+        long count = retiredCount;
+        for (final Cell cell : cells) {
+            long cellSumHigh;
+            long cellSumLow;
+            long cellCount;
+            long seq;
+            do {
+                seq = cell.seq;
+                cellSumHigh = cell.sumHigh;
+                cellSumLow = cell.sumLow;
+                cellCount = cell.count;
+            } while ((seq & 1) != 0 || seq != cell.seq);  // odd means a write is in progress
+
+            final long newSumLow = sumLow + cellSumLow;
+            sumHigh += cellSumHigh + (Long.compareUnsigned(newSumLow, sumLow) < 0 ? 1 : 0);
+            sumLow = newSumLow;
+            count += cellCount;
+        }
+        return StreamingStats.divide(sumHigh, sumLow, count);
     }
 
+    @Override
     public synchronized long getCount() {
-        return super.getCount();
+        retireDeadCells();
+        long count = retiredCount;
+        for (final Cell cell : cells)
+            count += cell.count;
+        return count;
+    }
+
+    /**
+     * Moves the cells of threads that have died into the retired total. A dead thread can't be mid-write, and its last
+     * write happens-before {@link Thread#isAlive} returning false (or before the GC clearing the reference), so the
+     * plain reads here see its final sum and count.
+     */
+    private void retireDeadCells() {
+        for (final Iterator<Cell> it = cells.iterator(); it.hasNext(); ) {
+            final Cell cell = it.next();
+            final Thread owner = cell.owner.get();
+            if (owner != null && owner.isAlive())
+                continue;
+
+            final long newSumLow = retiredSumLow + cell.sumLow;
+            retiredSumHigh += cell.sumHigh + (Long.compareUnsigned(newSumLow, retiredSumLow) < 0 ? 1 : 0);
+            retiredSumLow = newSumLow;
+            retiredCount += cell.count;
+            it.remove();
+        }
+    }
+
+    /**
+     * Single-writer sum/count pair. Everything is volatile so the seqlock reads in {@link #get()} can't be reordered
+     * around the sequence checks; writes are uncontended, so that costs very little.
+     */
+    @SuppressWarnings("unused")
+    private static final class Cell {
+
+        final WeakReference<Thread> owner;
+
+        // pad both sides so neighbouring cells don't false-share a cache line
+        long p0, p1, p2, p3, p4, p5, p6;
+
+        volatile long seq;
+        volatile long sumHigh;
+        volatile long sumLow;
+        volatile long count;
+
+        long q0, q1, q2, q3, q4, q5, q6;
+
+        Cell(Thread owner) {
+            this.owner = new WeakReference<>(owner);
+        }
+
+        void add(long value) {
+            final long s = seq;
+            seq = s + 1;
+            final long oldSumLow = sumLow;
+            final long newSumLow = oldSumLow + value;
+            sumHigh += (value >> 63) + (Long.compareUnsigned(newSumLow, oldSumLow) < 0 ? 1 : 0);
+            sumLow = newSumLow;
+            count++;
+            seq = s + 2;
+        }
     }
 }
@@ -0,0 +1,96 @@
+package dunkyboy.util;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * {@link dunkyboy.bench.Benchmarks} for this package: {@link ListUtils} merges and {@link RunningAverage} recording,
+ * the threadsafe one from 4 threads at once too.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class UtilBenchmarks {
+
+    @State(Scope.Thread)
+    public static class Merge {
+
+        @Param({ "kWay", "parallel", "primitive" })
+        public String impl;
+
+        @Param({ "2", "16", "256" })
+        public int k;
+
+        @Param("1000000")
+        public int totalElements;
+
+        long[][] arrays;
+        List<List<Long>> lists;
+
+        @Setup
+        public void setUp() {
+            final Random random = new Random(k);
+            arrays = new long[k][];
+            lists = new ArrayList<>(k);
+            for (int i = 0; i < k; i++) {
+                arrays[i] = random.longs(totalElements / k).sorted().toArray();
+                final List<Long> list = new ArrayList<>(arrays[i].length);
+                for (final long value : arrays[i])
+                    list.add(value);
+                lists.add(list);
+            }
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Averages {
+
+        @Param({ "plain", "threadsafe" })
+        public String impl;
+
+        Average average;
+
+        @Setup
+        public void setUp() {
+            switch (impl) {
+                case "plain":      average = new RunningAverage();           break;
+                case "threadsafe": average = new ThreadsafeRunningAverage(); break;
+                default:           throw new IllegalArgumentException("unknown impl: " + impl);
+            }
+        }
+    }
+
+    /**
+     * Just the threadsafe one, as the plain one can't be shared.
+     */
+    @State(Scope.Benchmark)
+    public static class SharedAverage {
+        final Average average = new ThreadsafeRunningAverage();
+    }
+
+    @Benchmark
+    public Object merge(Merge merge) {
+        switch (merge.impl) {
+            case "kWay":      return ListUtils.mergeSortedLists(merge.lists);
+            case "parallel":  return ListUtils.mergeSortedListsParallel(merge.lists, Comparator.naturalOrder());
+            case "primitive": return ListUtils.mergeSorted(merge.arrays);
+            default:          throw new IllegalArgumentException("unknown impl: " + merge.impl);
+        }
+    }
+
+    @Benchmark
+    public long addValue(Averages averages) {
+        return averages.average.addValue(System.nanoTime());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long addValueThreads4(SharedAverage shared) {
+        return shared.average.addValue(System.nanoTime());
+    }
+}
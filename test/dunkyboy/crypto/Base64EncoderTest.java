@@ -0,0 +1,94 @@
+package dunkyboy.crypto;
+
+import org.junit.Test;
+
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+
+/**
+ * Checks that both of {@link Base64Encoder}'s encode methods produce exactly what {@link Base64#getEncoder()} does,
+ * for every length up to a few hundred bytes (so all three padding cases, many times over) at awkward source and
+ * destination offsets, and that neither writes outside the range it says it wrote.
+ */
+public class Base64EncoderTest {
+
+    private static final int MAX_LENGTH = 300;
+    private static final int OFFSETS = 4;
+    private static final char GUARD = '#';  // not in the Base64 alphabet, and not padding
+
+    @Test
+    public void encodesBytesLikeJdk() {
+        final Random random = new Random(42);
+        final byte[] src = new byte[MAX_LENGTH + OFFSETS];
+        for (int length = 0; length <= MAX_LENGTH; length++) {
+            for (int offset = 0; offset < OFFSETS; offset++) {
+                random.nextBytes(src);
+                assertEquals(length + " bytes from " + offset, expected(src, offset, length),
+                    encodeToBytes(src, offset, length, offset + 1));
+            }
+        }
+    }
+
+    @Test
+    public void encodesCharsLikeJdk() {
+        final Random random = new Random(42);
+        final byte[] src = new byte[MAX_LENGTH + OFFSETS];
+        for (int length = 0; length <= MAX_LENGTH; length++) {
+            for (int offset = 0; offset < OFFSETS; offset++) {
+                random.nextBytes(src);
+                assertEquals(length + " bytes from " + offset, expected(src, offset, length),
+                    encodeToChars(src, offset, length, offset + 1));
+            }
+        }
+    }
+
+    private static String expected(byte[] src, int offset, int length) {
+        return Base64.getEncoder().encodeToString(Arrays.copyOfRange(src, offset, offset + length));
+    }
+
+    /**
+     * @return what was encoded, or a description of what went wrong around it
+     */
+    private static String encodeToBytes(byte[] src, int srcOffset, int length, int dstOffset) {
+        final int encodedLength = Base64Encoder.encodedLength(length);
+        final byte[] dst = new byte[dstOffset + encodedLength + 2];
+        Arrays.fill(dst, (byte) GUARD);
+
+        final int written = Base64Encoder.encode(src, srcOffset, length, dst, dstOffset);
+        if (written != encodedLength)
+            return "length " + written + " (expected " + encodedLength + ")";
+        for (int i = 0; i < dst.length; i++) {
+            if ((i < dstOffset || i >= dstOffset + written) && dst[i] != GUARD)
+                return "write outside [" + dstOffset + ", " + (dstOffset + written) + ") at " + i;
+        }
+        return new String(dst, dstOffset, written, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * @return what was encoded, or a description of what went wrong around it
+     */
+    private static String encodeToChars(byte[] src, int srcOffset, int length, int dstPosition) {
+        final int encodedLength = Base64Encoder.encodedLength(length);
+        final char[] chars = new char[dstPosition + encodedLength + 2];
+        Arrays.fill(chars, GUARD);
+        final CharBuffer dst = CharBuffer.wrap(chars);
+        dst.position(dstPosition);
+
+        final int written = Base64Encoder.encode(src, srcOffset, length, dst);
+        if (written != encodedLength)
+            return "length " + written + " (expected " + encodedLength + ")";
+        if (dst.position() != dstPosition + written)
+            return "position " + dst.position() + " (expected " + (dstPosition + written) + ")";
+        for (int i = 0; i < chars.length; i++) {
+            if ((i < dstPosition || i >= dstPosition + written) && chars[i] != GUARD)
+                return "write outside [" + dstPosition + ", " + (dstPosition + written) + ") at " + i;
+        }
+        return new String(chars, dstPosition, written);
+    }
+}
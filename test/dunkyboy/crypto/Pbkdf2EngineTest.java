@@ -0,0 +1,81 @@
+package dunkyboy.crypto;
+
+import org.junit.Test;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+
+
+/**
+ * Checks that {@link Pbkdf2Engine} derives exactly the bytes the JCE's {@link SecretKeyFactory} does, across the
+ * awkward cases: empty, non-ASCII and longer-than-a-block passwords, key lengths that aren't a whole number of hash
+ * blocks, and a single iteration. Each engine is reused across passwords, so switching back to an earlier password
+ * (and {@link Pbkdf2Engine#clear}) gets checked too.
+ */
+public class Pbkdf2EngineTest {
+
+    private static final String[] PASSWORDS = {
+        "",
+        "e43b16b3a2fb8e8b63b57a6ab4c13da5",
+        "p\u00e4ssw\u00f6rd \u2713 \u5bc6\u7801 \ud83d\udd11",  // 2, 3 and 4 byte UTF-8 sequences
+        repeat('x', 64),                                        // exactly SHA1/SHA256's block
+        repeat('y', 129),                                       // longer than any block, so it gets hashed first
+        repeat('\u00e9', 100),                                  // 100 chars, 200 bytes
+        "e43b16b3a2fb8e8b63b57a6ab4c13da5",                     // back to an earlier one
+    };
+
+    private static final int[] KEY_LENGTH_BITS = { 8, 152, 160, 168, 256, 520, 1032 };
+
+    private static final int[] ITERATIONS = { 1, 2, 1_000 };
+
+    @Test
+    public void matchesJceForSha1() throws Exception {
+        check("PBKDF2WithHmacSHA1");
+    }
+
+    @Test
+    public void matchesJceForSha256() throws Exception {
+        check("PBKDF2WithHmacSHA256");
+    }
+
+    @Test
+    public void matchesJceForSha512() throws Exception {
+        check("PBKDF2WithHmacSHA512");
+    }
+
+    private static void check(String algorithm) throws Exception {
+        final Random random = new Random(42);
+        final byte[][] salts = { new byte[1], new byte[16], new byte[200] };
+        for (final byte[] salt : salts)
+            random.nextBytes(salt);
+
+        final SecretKeyFactory factory = SecretKeyFactory.getInstance(algorithm);
+        final Pbkdf2Engine engine = Pbkdf2Engine.create(algorithm);
+
+        for (final String password : PASSWORDS) {
+            for (final byte[] salt : salts) {
+                for (final int iterations : ITERATIONS) {
+                    for (final int keyLengthBits : KEY_LENGTH_BITS) {
+                        final byte[] expected = factory.generateSecret(
+                            new PBEKeySpec(password.toCharArray(), salt, iterations, keyLengthBits)).getEncoded();
+                        assertArrayEquals(algorithm + ", password \"" + password + "\", " + salt.length +
+                                " byte salt, " + iterations + " iterations, " + keyLengthBits + " bits",
+                            expected, engine.deriveKey(password, salt, iterations, keyLengthBits));
+                    }
+                }
+            }
+            if (password.isEmpty())
+                engine.clear();  // the next password has to rebuild the key blocks from scratch
+        }
+    }
+
+    private static String repeat(char c, int count) {
+        final char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+}